@@ -0,0 +1,75 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.server.StreamHandler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * echo the payload, optionally blocking the worker like a handler waiting for a database
+ */
+public class BenchHandler implements Bench.Iface, StreamHandler {
+
+    private final long blockNanos;
+
+    public BenchHandler(long blockMicros) {
+        this.blockNanos = TimeUnit.MICROSECONDS.toNanos(blockMicros);
+    }
+
+    @Override
+    public Payload echo(Payload payload) {
+        if(blockNanos > 0){
+            LockSupport.parkNanos(blockNanos);
+        }
+        return payload;
+    }
+
+    /**
+     * upload : takes the request, answers its size on 8 bytes
+     * download : answers as many bytes as the request asks on 8 bytes
+     */
+    @Override
+    public void stream(String method, InputStream in, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        byte[] buffer = new byte[64 * 1024];
+        if("upload".equals(method)){
+            long size = 0;
+            for (int n; (n = in.read(buffer)) >= 0; ){
+                size += n;
+            }
+            data.writeLong(size);
+        }else if("download".equals(method)){
+            for (long left = new DataInputStream(in).readLong(); left > 0; left -= buffer.length){
+                data.write(buffer, 0, (int) Math.min(left, buffer.length));
+            }
+        }else{
+            throw new IllegalArgumentException("no stream " + method);
+        }
+    }
+}
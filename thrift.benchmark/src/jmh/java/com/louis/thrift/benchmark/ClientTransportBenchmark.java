@@ -0,0 +1,94 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.client.PooledFramedTransport;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * a call on a single connection with the framed transport of libthrift and with PooledFramedTransport,
+ * run it with -prof gc to compare gc.alloc.rate.norm, the server side allocates the same for both
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientTransportBenchmark {
+
+    @Param({"FRAMED", "POOLED"})
+    public String transport;
+
+    @Param({"256", "16384"})
+    public int size;
+
+    private Loopback loopback;
+
+    private Bench.Client client;
+
+    private Payload payload;
+
+    @Setup
+    public void setup() throws Exception {
+        loopback = Loopback.start(new ThriftServerProperties(), new BenchHandler(0), null);
+        TTransport base;
+        TProtocol protocol;
+        if("POOLED".equals(transport)){
+            base = new PooledFramedTransport(loopback.address());
+            protocol = PooledFramedTransport.detached(new TCompactProtocol(base));
+        }else{
+            base = new TFramedTransport(new TSocket(loopback.address().getHostString(), loopback.address().getPort()));
+            protocol = new TCompactProtocol(base);
+        }
+        base.open();
+        client = new Bench.Client(new TMultiplexedProtocol(protocol, Loopback.SERVICE));
+        payload = Payload.ofSize(size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.getInputProtocol().getTransport().close();
+        loopback.close();
+    }
+
+    @Benchmark
+    public Payload echo() throws TException {
+        return client.echo(payload);
+    }
+}
@@ -0,0 +1,81 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.provider.ServerExposeProvider;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * ServerExposeProvider over a fixed list of endpoints, round robin
+ */
+public class FixedServerExposeProvider implements ServerExposeProvider {
+
+    private final String service;
+
+    private final List<InetSocketAddress> addresses = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public FixedServerExposeProvider(String service, List<InetSocketAddress> addresses) {
+        this.service = service;
+        this.addresses.addAll(addresses);
+    }
+
+    public void add(InetSocketAddress address){
+        addresses.add(address);
+    }
+
+    public void remove(InetSocketAddress address){
+        addresses.remove(address);
+    }
+
+    @Override
+    public String getService() {
+        return service;
+    }
+
+    @Override
+    public List<InetSocketAddress> getServerAddressList() {
+        return new ArrayList<>(addresses);
+    }
+
+    @Override
+    public boolean contains(InetSocketAddress address) {
+        return addresses.contains(address);
+    }
+
+    @Override
+    public InetSocketAddress select() {
+        List<InetSocketAddress> list = addresses;
+        if(list.isEmpty()){
+            return null;
+        }
+        return list.get(Math.floorMod(next.getAndIncrement(), list.size()));
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,161 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.client.ClientProxyFactory;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.server.DefaultTServerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * A DefaultTServerFactory serving Bench on a free local port
+ */
+public class Loopback implements Closeable {
+
+    public static final String SERVICE = Bench.class.getName();
+
+    private final DefaultTServerFactory server;
+
+    private final InetSocketAddress address;
+
+    private Loopback(DefaultTServerFactory server, InetSocketAddress address) {
+        this.server = server;
+        this.address = address;
+    }
+
+    /**
+     * start a server and wait until it accepts connections
+     * @param properties
+     * @param handler
+     * @param meterRegistry null to disable the metrics
+     * @return
+     */
+    public static Loopback start(ThriftServerProperties properties, Bench.Iface handler, MeterRegistry meterRegistry) throws IOException {
+        int port = freePort();
+        Map<String, TProcessor> processorMap = new HashMap<>();
+        processorMap.put(SERVICE, new Bench.Processor<>(handler));
+        DefaultTServerFactory server = DefaultTServerFactory.custom()
+                .port(port)
+                .processorMap(processorMap)
+                .thriftServerProperties(properties)
+                .meterRegistry(meterRegistry)
+                .build();
+        server.create();
+        server.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        awaitListening(address);
+        return new Loopback(server, address);
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)){
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(InetSocketAddress address) throws IOException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true){
+            try (Socket socket = new Socket()){
+                socket.connect(address, 100);
+                return;
+            }catch (IOException e){
+                if(System.currentTimeMillis() > deadline){
+                    throw e;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    public FixedServerExposeProvider provider(){
+        return new FixedServerExposeProvider(SERVICE, Collections.singletonList(address));
+    }
+
+    /**
+     * a client on its own connection, framed and multiplexed like the pooled ones
+     * @return
+     */
+    public Bench.Client connect() throws TTransportException {
+        TTransport transport = new TFramedTransport(new TSocket(address.getHostString(), address.getPort()));
+        transport.open();
+        return new Bench.Client(new TMultiplexedProtocol(new TCompactProtocol(transport), SERVICE));
+    }
+
+    /**
+     * a configured proxy of Bench.Iface calling through the socket, the local calls are disabled
+     * @param properties
+     * @param meterRegistry null to disable the metrics
+     * @return
+     */
+    public ClientProxyFactory proxy(ThriftClientProperties properties, MeterRegistry meterRegistry) throws ReflectiveOperationException {
+        properties.getLocal().setEnabled(false);
+        return ClientProxyFactory.create(properties)
+                .serverExposeProvider(provider())
+                .meterRegistry(meterRegistry)
+                .configure();
+    }
+
+    /**
+     * a configured proxy of Bench.Iface calling the handler of the server in this jvm
+     * @param copy whether the arguments and the results are copied
+     * @return
+     */
+    public ClientProxyFactory localProxy(boolean copy) throws ReflectiveOperationException {
+        ThriftClientProperties properties = new ThriftClientProperties();
+        properties.getLocal().setEnabled(true);
+        properties.getLocal().setCopy(copy);
+        return ClientProxyFactory.create(properties)
+                .serverExposeProvider(provider())
+                .configure();
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+}
@@ -0,0 +1,119 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.client.ClientProxyFactory;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.concurrent.WorkerMode;
+import org.apache.thrift.TException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * end to end throughput of a DefaultTServerFactory server called by 32 threads through a proxy,
+ * for the selector and the netty transports.
+ * With a blocking handler the fixed worker pool is the limit, the virtual threads are not (JDK 21+,
+ * older JDKs fall back to the fixed pool)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class LoopbackBenchmark {
+
+    @Param({"SELECTOR", "NETTY"})
+    public ThriftServerProperties.Transport transport;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public WorkerMode workerMode;
+
+    /**
+     * time the handler blocks, 0 for a cpu only handler
+     */
+    @Param({"0", "1000"})
+    public int blockMicros;
+
+    @Param({"256", "16384"})
+    public int size;
+
+    /**
+     * protocol of the client, the server detects it. -p protocol=compact,binary,json to compare them
+     */
+    @Param({"compact"})
+    public String protocol;
+
+    /**
+     * millis the responses of echo are cached by the server, 0 for none. -p cacheTtlMillis=0,1000 to compare
+     */
+    @Param({"0"})
+    public long cacheTtlMillis;
+
+    private Loopback loopback;
+
+    private ClientProxyFactory clientProxyFactory;
+
+    private Bench.Iface proxy;
+
+    private Payload payload;
+
+    @Setup
+    public void setup() throws Exception {
+        ThriftServerProperties serverProperties = new ThriftServerProperties();
+        serverProperties.setTransport(transport);
+        serverProperties.setWorkerMode(workerMode);
+        serverProperties.setWorkerCount(8);
+        if(cacheTtlMillis > 0){
+            serverProperties.getResponseCache().getMethods().put(Loopback.SERVICE + ":echo", cacheTtlMillis);
+        }
+        loopback = Loopback.start(serverProperties, new BenchHandler(blockMicros), null);
+        ThriftClientProperties clientProperties = new ThriftClientProperties();
+        clientProperties.setMaxActive(32);
+        clientProperties.setMaxIdle(32);
+        clientProperties.setProtocol(protocol);
+        clientProxyFactory = loopback.proxy(clientProperties, null);
+        proxy = (Bench.Iface) clientProxyFactory.getProxy();
+        payload = Payload.ofSize(size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        clientProxyFactory.close();
+        loopback.close();
+    }
+
+    @Benchmark
+    public Payload echo() throws TException {
+        return proxy.echo(payload);
+    }
+}
@@ -0,0 +1,161 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.client.ConnectionPool;
+import com.louis.thrift.client.ThriftClientPoolFactory;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.TServiceClientFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * borrow and return a connection from 64 threads, ConnectionPool against the GenericObjectPool it replaced,
+ * configured like ClientProxyFactory did
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(64)
+public class PoolBenchmark {
+
+    public enum Pool { COMMONS, BAG }
+
+    @Param({"COMMONS", "BAG"})
+    public Pool pool;
+
+    /**
+     * fewer connections than threads makes the threads wait for each other
+     */
+    @Param({"8", "64"})
+    public int maxActive;
+
+    private Loopback loopback;
+
+    private GenericObjectPool<TServiceClient> commonsPool;
+
+    private ConnectionPool<TServiceClient> bagPool;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        loopback = Loopback.start(new ThriftServerProperties(), new BenchHandler(0), null);
+        TServiceClientFactory<? extends TServiceClient> clientFactory = new Bench.Client.Factory();
+        ThriftClientPoolFactory factory = new ThriftClientPoolFactory(loopback.provider(),
+                (TServiceClientFactory<TServiceClient>) clientFactory);
+        if(pool == Pool.COMMONS){
+            GenericObjectPoolConfig<TServiceClient> config = new GenericObjectPoolConfig<>();
+            config.setMaxTotal(maxActive);
+            config.setMaxIdle(maxActive);
+            config.setTestOnBorrow(true);
+            commonsPool = new GenericObjectPool<>(new CommonsFactory(factory), config);
+            for (int i = 0; i < maxActive; i++){
+                commonsPool.addObject();
+            }
+        }else{
+            ThriftClientProperties properties = new ThriftClientProperties();
+            properties.setMaxActive(maxActive);
+            properties.setMaxIdle(maxActive);
+            bagPool = new ConnectionPool<>(factory, properties);
+            List<ConnectionPool.Entry<TServiceClient>> entries = new ArrayList<>(maxActive);
+            for (int i = 0; i < maxActive; i++){
+                entries.add(bagPool.borrow());
+            }
+            for (ConnectionPool.Entry<TServiceClient> entry : entries){
+                bagPool.release(entry);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(commonsPool != null){
+            commonsPool.close();
+        }
+        if(bagPool != null){
+            bagPool.close();
+        }
+        loopback.close();
+    }
+
+    @Benchmark
+    public Object borrowReturn() throws Exception {
+        if(commonsPool != null){
+            TServiceClient client = commonsPool.borrowObject();
+            commonsPool.returnObject(client);
+            return client;
+        }
+        ConnectionPool.Entry<TServiceClient> entry = bagPool.borrow();
+        bagPool.release(entry);
+        return entry;
+    }
+
+    /**
+     * the connections of ThriftClientPoolFactory for commons-pool2
+     */
+    private static class CommonsFactory extends BasePooledObjectFactory<TServiceClient> {
+
+        private final ThriftClientPoolFactory factory;
+
+        CommonsFactory(ThriftClientPoolFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public TServiceClient create() throws Exception {
+            return factory.create();
+        }
+
+        @Override
+        public PooledObject<TServiceClient> wrap(TServiceClient client) {
+            return new DefaultPooledObject<>(client);
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<TServiceClient> p) {
+            return factory.validate(p.getObject());
+        }
+
+        @Override
+        public void destroyObject(PooledObject<TServiceClient> p) throws Exception {
+            factory.destroy(p.getObject());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * encode and decode a payload with the protocols of ThriftServerProperties.PROFACT,
+ * the buffers are reused so only the protocol itself is measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolBenchmark {
+
+    /**
+     * index in ThriftServerProperties.PROFACT: compact, binary, json
+     */
+    @Param({"0", "1", "2"})
+    public int protocol;
+
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    private Payload payload;
+
+    private TByteArrayOutputStream output;
+
+    private TProtocol writer;
+
+    private byte[] encoded;
+
+    private TMemoryInputTransport input;
+
+    private TProtocol reader;
+
+    @Setup
+    public void setup() throws TException {
+        TProtocolFactory factory = ThriftServerProperties.PROFACT[protocol];
+        payload = Payload.ofSize(size);
+        output = new TByteArrayOutputStream(size * 4);
+        writer = factory.getProtocol(new TIOStreamTransport(output));
+        payload.write(writer);
+        encoded = Arrays.copyOf(output.get(), output.len());
+        input = new TMemoryInputTransport();
+        reader = factory.getProtocol(input);
+    }
+
+    @Benchmark
+    public int encode() throws TException {
+        output.reset();
+        writer.reset();
+        payload.write(writer);
+        return output.len();
+    }
+
+    @Benchmark
+    public Payload decode() throws TException {
+        input.reset(encoded);
+        reader.reset();
+        Payload decoded = new Payload();
+        decoded.read(reader);
+        return decoded;
+    }
+}
@@ -0,0 +1,113 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.client.ClientProxyFactory;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.thrift.TException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * a call through the proxy of ClientProxyFactory against the same call on a plain client,
+ * the difference is the cost of the pool, the reflection and the metrics.
+ * The local calls go to the handler of the server in this jvm, with or without copies
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProxyInvocationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private Loopback loopback;
+
+    private ClientProxyFactory clientProxyFactory;
+
+    private Bench.Iface proxy;
+
+    private Bench.Client client;
+
+    private ClientProxyFactory localFactory;
+
+    private ClientProxyFactory localCopyFactory;
+
+    private Bench.Iface local;
+
+    private Bench.Iface localCopy;
+
+    private final Payload payload = Payload.ofSize(64);
+
+    @Setup
+    public void setup() throws Exception {
+        loopback = Loopback.start(new ThriftServerProperties(), new BenchHandler(0), null);
+        clientProxyFactory = loopback.proxy(new ThriftClientProperties(), metrics ? new SimpleMeterRegistry() : null);
+        proxy = (Bench.Iface) clientProxyFactory.getProxy();
+        client = loopback.connect();
+        localFactory = loopback.localProxy(false);
+        local = (Bench.Iface) localFactory.getProxy();
+        localCopyFactory = loopback.localProxy(true);
+        localCopy = (Bench.Iface) localCopyFactory.getProxy();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.getOutputProtocol().getTransport().close();
+        clientProxyFactory.close();
+        localFactory.close();
+        localCopyFactory.close();
+        loopback.close();
+    }
+
+    @Benchmark
+    public Payload direct() throws TException {
+        return client.echo(payload);
+    }
+
+    @Benchmark
+    public Payload proxy() throws TException {
+        return proxy.echo(payload);
+    }
+
+    @Benchmark
+    public Payload local() throws TException {
+        return local.echo(payload);
+    }
+
+    @Benchmark
+    public Payload localCopy() throws TException {
+        return localCopy.echo(payload);
+    }
+}
@@ -0,0 +1,121 @@
+package com.louis.thrift.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Compare the JSON results of a jmh run with the results of a baseline run,
+ * exit with 1 when a benchmark got worse than the tolerance allows.
+ *
+ * usage : RegressionCheck results.json baseline.json [tolerance, 0.1 means 10%]
+ */
+public class RegressionCheck {
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.err.println("usage : RegressionCheck results.json baseline.json [tolerance]");
+            System.exit(2);
+        }
+        Map<String, Score> results = read(new File(args[0]));
+        Map<String, Score> baseline = read(new File(args[1]));
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()){
+            Score before = baseline.get(entry.getKey());
+            if(before == null){
+                System.out.println(String.format("NEW        %s %.3f %s", entry.getKey(), entry.getValue().score, entry.getValue().unit));
+                continue;
+            }
+            double change = entry.getValue().change(before);
+            boolean regressed = change < -tolerance;
+            if(regressed){
+                regressions++;
+            }
+            System.out.println(String.format("%-10s %s %.3f -> %.3f %s (%+.1f%%)", regressed ? "REGRESSED" : "OK",
+                    entry.getKey(), before.score, entry.getValue().score, entry.getValue().unit, change * 100));
+        }
+        if(regressions > 0){
+            System.err.println(regressions + " benchmark(s) regressed by more than " + (tolerance * 100) + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param file JSON written by jmh with -rf json
+     * @return the scores keyed by benchmark and parameters
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)){
+            StringBuilder key = new StringBuilder(run.get("benchmark").asText());
+            JsonNode params = run.get("params");
+            if(params != null){
+                Map<String, String> sorted = new TreeMap<>();
+                Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+                while (fields.hasNext()){
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    sorted.put(field.getKey(), field.getValue().asText());
+                }
+                key.append(sorted);
+            }
+            JsonNode metric = run.get("primaryMetric");
+            scores.put(key.toString(), new Score(run.get("mode").asText(),
+                    metric.get("score").asDouble(), metric.get("scoreUnit").asText()));
+        }
+        return scores;
+    }
+
+    static class Score {
+
+        private final String mode;
+
+        private final double score;
+
+        private final String unit;
+
+        Score(String mode, double score, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.unit = unit;
+        }
+
+        /**
+         * @param before
+         * @return relative improvement, negative when worse
+         */
+        double change(Score before){
+            if(before.score == 0){
+                return 0;
+            }
+            double change = (score - before.score) / before.score;
+            //higher is better only for throughput, the other modes measure time
+            return "thrpt".equals(mode) ? change : -change;
+        }
+    }
+}
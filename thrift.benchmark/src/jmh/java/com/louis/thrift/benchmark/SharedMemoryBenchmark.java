@@ -0,0 +1,90 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.client.PooledFramedTransport;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.shm.SharedMemoryTransport;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * a call on a single connection to a server of the same host, through the loopback with the framed transport
+ * of the pool, and through the rings of a mapped file. Both end in the same processor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SharedMemoryBenchmark {
+
+    @Param({"TCP", "SHM"})
+    public String transport;
+
+    @Param({"256", "16384", "1048576"})
+    public int size;
+
+    private Loopback loopback;
+
+    private Bench.Client client;
+
+    private Payload payload;
+
+    @Setup
+    public void setup() throws Exception {
+        File directory = new File("/dev/shm").isDirectory() ? new File("/dev/shm") : new File(System.getProperty("java.io.tmpdir"));
+        ThriftServerProperties properties = new ThriftServerProperties();
+        properties.getSharedMemory().setEnabled(true);
+        properties.getSharedMemory().setDirectory(directory.getPath());
+        loopback = Loopback.start(properties, new BenchHandler(0), null);
+        TTransport base;
+        TProtocol protocol;
+        if("SHM".equals(transport)){
+            base = new SharedMemoryTransport(new File(directory, "thrift-" + loopback.address().getPort()),
+                    properties.getSharedMemory().getRingSize());
+            protocol = new TCompactProtocol(base);
+        }else{
+            base = new PooledFramedTransport(loopback.address());
+            protocol = PooledFramedTransport.detached(new TCompactProtocol(base));
+        }
+        base.open();
+        client = new Bench.Client(new TMultiplexedProtocol(protocol, Loopback.SERVICE));
+        payload = Payload.ofSize(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.getInputProtocol().getTransport().close();
+        loopback.close();
+    }
+
+    @Benchmark
+    public Payload echo() throws TException {
+        return client.echo(payload);
+    }
+}
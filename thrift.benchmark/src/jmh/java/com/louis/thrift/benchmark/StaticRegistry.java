@@ -0,0 +1,70 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.register.MonitorEvent;
+import com.louis.thrift.register.MonitorListener;
+import com.louis.thrift.register.Registry;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+
+import java.util.List;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Registry announcing a fixed list of children to the subscribers, without zookeeper
+ */
+public class StaticRegistry implements Registry {
+
+    private final List<String> children;
+
+    /**
+     * @param children like ${host}:${port}
+     */
+    public StaticRegistry(List<String> children) {
+        this.children = children;
+    }
+
+    @Override
+    public void register(String path, byte[] data) {
+    }
+
+    @Override
+    public void unregister(String path) {
+    }
+
+    @Override
+    public void watch(String path, MonitorListener listener) {
+    }
+
+    @Override
+    public void subscribe(String path, PathChildrenCache.StartMode startMode, MonitorListener listener) {
+        for (String child : children){
+            listener.changed(new MonitorEvent(MonitorEvent.EventType.CHILD_ADDED, ImmutablePair.of(path + "/" + child, new byte[0])));
+        }
+    }
+
+    @Override
+    public void unSubscribe(String path, MonitorListener listener) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
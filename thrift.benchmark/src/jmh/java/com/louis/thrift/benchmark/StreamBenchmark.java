@@ -0,0 +1,98 @@
+package com.louis.thrift.benchmark;
+
+import com.louis.thrift.client.ClientProxyFactory;
+import com.louis.thrift.client.StreamCall;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * a payload sent to the loopback server, or received from it, in chunks through a stream.
+ * The heap needed doesn't grow with the size, run it with a small -Xmx to see it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StreamBenchmark {
+
+    @Param({"UPLOAD", "DOWNLOAD"})
+    public String direction;
+
+    @Param({"16777216", "268435456"})
+    public long size;
+
+    @Param({"65536"})
+    public int chunkSize;
+
+    private Loopback loopback;
+
+    private ClientProxyFactory clientProxyFactory;
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setup() throws Exception {
+        ThriftServerProperties serverProperties = new ThriftServerProperties();
+        serverProperties.getStream().setChunkSize(chunkSize);
+        loopback = Loopback.start(serverProperties, new BenchHandler(0), null);
+        ThriftClientProperties clientProperties = new ThriftClientProperties();
+        clientProperties.setStreamChunkSize(chunkSize);
+        clientProxyFactory = loopback.proxy(clientProperties, null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        clientProxyFactory.close();
+        loopback.close();
+    }
+
+    @Benchmark
+    public long stream() throws Exception {
+        try (StreamCall call = clientProxyFactory.stream(direction.toLowerCase())){
+            try (OutputStream out = call.getOutputStream()){
+                if("UPLOAD".equals(direction)){
+                    for (long left = size; left > 0; left -= buffer.length){
+                        out.write(buffer, 0, (int) Math.min(left, buffer.length));
+                    }
+                }else{
+                    new DataOutputStream(out).writeLong(size);
+                }
+            }
+            InputStream in = call.getInputStream();
+            if("UPLOAD".equals(direction)){
+                return new DataInputStream(in).readLong();
+            }
+            long received = 0;
+            for (int n; (n = in.read(buffer)) >= 0; ){
+                received += n;
+            }
+            return received;
+        }
+    }
+}
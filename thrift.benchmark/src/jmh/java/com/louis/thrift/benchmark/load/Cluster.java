@@ -0,0 +1,198 @@
+package com.louis.thrift.benchmark.load;
+
+import com.louis.thrift.benchmark.BenchHandler;
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.server.DefaultTServerFactory;
+import com.louis.thrift.server.ServerIpResolve;
+import com.louis.thrift.zk.DefaultCuratorFactory;
+import com.louis.thrift.zk.ZkProperties;
+import org.apache.curator.test.TestingServer;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.server.TServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * An in-process zookeeper and the Bench providers registered in it
+ */
+public class Cluster implements Closeable {
+
+    public static final String SERVICE = Bench.class.getName();
+
+    /**
+     * every provider runs in this process
+     */
+    private static final ServerIpResolve LOCALHOST = new ServerIpResolve() {
+        @Override
+        public String getServerIp() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    private final TestingServer zookeeper;
+
+    private final ThriftServerProperties serverProperties;
+
+    private final long handlerBlockMicros;
+
+    private final Deque<Provider> providers = new ConcurrentLinkedDeque<>();
+
+    public Cluster(ThriftServerProperties serverProperties, long handlerBlockMicros) throws Exception {
+        this.zookeeper = new TestingServer();
+        this.serverProperties = serverProperties;
+        this.handlerBlockMicros = handlerBlockMicros;
+    }
+
+    public ZkProperties zkProperties(){
+        ZkProperties zkProperties = new ZkProperties();
+        zkProperties.setUri(zookeeper.getConnectString());
+        return zkProperties;
+    }
+
+    /**
+     * start a provider registering itself in zookeeper
+     * @return port of the provider
+     */
+    public int addProvider() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)){
+            port = socket.getLocalPort();
+        }
+        Map<String, TProcessor> processorMap = new HashMap<>();
+        BenchHandler handler = new BenchHandler(handlerBlockMicros);
+        LongAdder calls = new LongAdder();
+        processorMap.put(SERVICE, new Bench.Processor<Bench.Iface>(payload -> {
+            calls.increment();
+            return handler.echo(payload);
+        }));
+        DefaultTServerFactory provider = DefaultTServerFactory.custom()
+                .port(port)
+                .processorMap(processorMap)
+                .thriftServerProperties(serverProperties)
+                .curatorFactory(DefaultCuratorFactory.build(zkProperties()))
+                .serverIpResolve(LOCALHOST)
+                .build();
+        TServer server = provider.create();
+        provider.start();
+        providers.add(new Provider(provider, server, calls));
+        return port;
+    }
+
+    /**
+     * stop the provider started last right away, its calls in flight fail
+     * @return false if there is no provider left
+     */
+    public boolean killProvider(){
+        Provider provider = providers.pollLast();
+        if(provider == null){
+            return false;
+        }
+        provider.server.stop();
+        provider.factory.stop();
+        return true;
+    }
+
+    /**
+     * stop the provider started last gracefully: it leaves zookeeper, waits for the clients
+     * to notice and for its calls in flight, then stops
+     * @return false if there is no provider left
+     */
+    public boolean drainProvider(){
+        Provider provider = providers.pollLast();
+        if(provider == null){
+            return false;
+        }
+        provider.factory.stop();
+        return true;
+    }
+
+    public int size(){
+        return providers.size();
+    }
+
+    /**
+     * share of the calls served by each provider since the last time, in the order they were started
+     * @return like 34/33/33%
+     */
+    public String shares(){
+        List<Long> counts = new ArrayList<>();
+        long total = 0;
+        for (Provider provider : providers){
+            long count = provider.calls.sumThenReset();
+            counts.add(count);
+            total += count;
+        }
+        StringBuilder shares = new StringBuilder();
+        for (Long count : counts){
+            shares.append(shares.length() == 0 ? "" : "/").append(total == 0 ? 0 : Math.round(count * 100.0 / total));
+        }
+        return shares.append('%').toString();
+    }
+
+    private static class Provider {
+
+        private final DefaultTServerFactory factory;
+
+        private final TServer server;
+
+        private final LongAdder calls;
+
+        Provider(DefaultTServerFactory factory, TServer server, LongAdder calls) {
+            this.factory = factory;
+            this.server = server;
+            this.calls = calls;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        //each stop waits for the grace period, stop them all at once
+        List<Thread> stopping = new ArrayList<>();
+        for (int i = providers.size(); i > 0; i--){
+            Thread thread = new Thread(this::killProvider);
+            thread.start();
+            stopping.add(thread);
+        }
+        try {
+            for (Thread thread : stopping){
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        zookeeper.close();
+    }
+}
@@ -0,0 +1,281 @@
+package com.louis.thrift.benchmark.load;
+
+import com.louis.thrift.benchmark.service.Bench;
+import com.louis.thrift.benchmark.service.Payload;
+import com.louis.thrift.client.Bella;
+import com.louis.thrift.client.ClientProxyFactory;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.concurrent.WorkerMode;
+import com.louis.thrift.provider.ZkServerExposeProvider;
+import com.louis.thrift.register.ZkRegistry;
+import com.louis.thrift.zk.DefaultCuratorFactory;
+import org.HdrHistogram.Histogram;
+import org.apache.thrift.TException;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Load generator running the whole stack in one process: an embedded zookeeper, the Bench providers
+ * registered in it, and a Bella client discovering them. Calls are started at a constant rate and
+ * the percentiles are corrected for coordinated omission.
+ *
+ * A provider can be killed, or drained: it leaves zookeeper and stops once its calls are answered.
+ * Each second prints the share of the calls served by each provider.
+ *
+ * usage : LoadTest [--providers=3] [--rate=1000] [--duration=30] [--warmup=5] [--size=256]
+ *                  [--blockMicros=0] [--workerCount=0] [--workerMode=PLATFORM] [--maxActive=64]
+ *                  [--graceMillis=3000] [--scenario=kill@10,drain@15,add@20] [--histogram=response.hgrm]
+ *                  [--idempotent=false]
+ */
+public class LoadTest {
+
+    private final Map<String, String> options;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        String scenario = options.get("scenario");
+        if(scenario != null && !scenario.isEmpty()){
+            for (String step : scenario.split(",")){
+                String[] parts = step.trim().split("@");
+                if(parts.length != 2 || !("kill".equals(parts[0]) || "drain".equals(parts[0]) || "add".equals(parts[0]))){
+                    throw new IllegalArgumentException("scenario step must be kill@${second}, drain@${second} or add@${second} : " + step);
+                }
+                steps.add(new Step(parts[0], Integer.parseInt(parts[1])));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args){
+            if(!arg.startsWith("--") || !arg.contains("=")){
+                throw new IllegalArgumentException("options are like --name=value : " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    private int intOption(String name, int defaultValue){
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void run() throws Exception {
+        int providers = intOption("providers", 3);
+        int rate = intOption("rate", 1000);
+        int duration = intOption("duration", 30);
+        int warmup = intOption("warmup", 5);
+        Payload payload = Payload.ofSize(intOption("size", 256));
+
+        ThriftServerProperties serverProperties = new ThriftServerProperties();
+        serverProperties.setWorkerCount(intOption("workerCount", 0));
+        serverProperties.setWorkerMode(WorkerMode.valueOf(options.getOrDefault("workerMode", WorkerMode.PLATFORM.name())));
+        serverProperties.setShutdownGraceMillis(intOption("graceMillis", 3000));
+        ThriftClientProperties clientProperties = new ThriftClientProperties();
+        clientProperties.setMaxActive(intOption("maxActive", 64));
+        clientProperties.setMaxIdle(intOption("maxActive", 64));
+        clientProperties.setWorkerMode(serverProperties.getWorkerMode());
+        //the providers are in this jvm, the calls must go through their sockets
+        clientProperties.getLocal().setEnabled(false);
+        if(Boolean.parseBoolean(options.get("idempotent"))){
+            //the calls failed by a kill are retried on another provider
+            clientProperties.getRetry().setMethods(Collections.singletonList(Cluster.SERVICE + ":echo"));
+        }
+
+        try (Cluster cluster = new Cluster(serverProperties, intOption("blockMicros", 0))){
+            for (int i = 0; i < providers; i++){
+                cluster.addProvider();
+            }
+            ZkServerExposeProvider provider = ZkServerExposeProvider.build(ZkRegistry.build()
+                    .curatorFactory(DefaultCuratorFactory.build(cluster.zkProperties())))
+                    .service(Cluster.SERVICE);
+            provider.buildPathChildrenCache();
+            awaitProviders(provider, providers);
+            ClientProxyFactory clientProxyFactory = ClientProxyFactory.create(clientProperties)
+                    .serverExposeProvider(provider)
+                    .configure();
+            Bella bella = new Bella(Collections.singletonMap(Cluster.SERVICE, clientProxyFactory));
+
+            OpenLoopGenerator generator = new OpenLoopGenerator(rate, () -> bella.submit(Cluster.SERVICE, proxy -> {
+                long started = System.nanoTime();
+                try {
+                    ((Bench.Iface) proxy).echo(payload);
+                } catch (TException e) {
+                    throw new CompletionException(e);
+                }
+                return started;
+            }));
+
+            Report report = new Report(warmup, cluster);
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+            scheduler.scheduleAtFixedRate(() -> report.second(generator), 1, 1, TimeUnit.SECONDS);
+            //a drain takes the grace period, the steps don't hold the report
+            ScheduledExecutorService stepScheduler = Executors.newScheduledThreadPool(Math.max(1, steps.size()));
+            for (Step step : steps){
+                stepScheduler.schedule(() -> step.apply(cluster), step.second, TimeUnit.SECONDS);
+            }
+            System.out.println(String.format("%d providers, %d calls/s during %ds after %ds of warmup", providers, rate, duration, warmup));
+            generator.run(warmup + duration, TimeUnit.SECONDS);
+            //let the calls in flight finish
+            long deadline = System.currentTimeMillis() + 5000;
+            while (generator.inFlight() > 0 && System.currentTimeMillis() < deadline){
+                Thread.sleep(10);
+            }
+            scheduler.shutdownNow();
+            stepScheduler.shutdownNow();
+            report.second(generator);
+            report.summary(rate, duration, generator.inFlight());
+            String histogram = options.get("histogram");
+            if(histogram != null){
+                try (PrintStream out = new PrintStream(histogram)){
+                    report.responseTimes.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+            clientProxyFactory.close();
+        }
+    }
+
+    private static void awaitProviders(ZkServerExposeProvider provider, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (provider.getServerAddressList().size() < count){
+            if(System.currentTimeMillis() > deadline){
+                throw new IllegalStateException("only " + provider.getServerAddressList().size() + " of " + count + " providers discovered");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * a change of the cluster during the run
+     */
+    private static class Step {
+
+        private final String action;
+
+        private final int second;
+
+        Step(String action, int second) {
+            this.action = action;
+            this.second = second;
+        }
+
+        void apply(Cluster cluster){
+            try {
+                if("kill".equals(action)){
+                    cluster.killProvider();
+                }else if("drain".equals(action)){
+                    cluster.drainProvider();
+                }else{
+                    cluster.addProvider();
+                }
+                System.out.println(String.format("---- %s a provider at %ds, %d providers", action, second, cluster.size()));
+            }catch (Exception e){
+                System.out.println("---- " + action + " failed : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * one line per second, the totals once the warmup is over
+     */
+    private static class Report {
+
+        private final int warmup;
+
+        private final Cluster cluster;
+
+        private final Histogram responseTimes = new Histogram(3);
+
+        private final Histogram serviceTimes = new Histogram(3);
+
+        private int seconds;
+
+        private long lastCompleted;
+
+        private long lastErrors;
+
+        private long completed;
+
+        private long errors;
+
+        Report(int warmup, Cluster cluster) {
+            this.warmup = warmup;
+            this.cluster = cluster;
+        }
+
+        synchronized void second(OpenLoopGenerator generator){
+            seconds++;
+            Histogram interval = generator.responseTimes();
+            Histogram service = generator.serviceTimes();
+            long completedNow = generator.completed();
+            long errorsNow = generator.errors();
+            long completedDelta = completedNow - lastCompleted;
+            long errorsDelta = errorsNow - lastErrors;
+            lastCompleted = completedNow;
+            lastErrors = errorsNow;
+            boolean measured = seconds > warmup;
+            if(measured){
+                responseTimes.add(interval);
+                serviceTimes.add(service);
+                completed += completedDelta;
+                errors += errorsDelta;
+            }
+            System.out.println(String.format("%s%4ds %7d ok %5d errors | p50 %8.2f p99 %8.2f p99.9 %8.2f max %8.2f ms | providers %d %s",
+                    measured ? "" : "warmup ", seconds, completedDelta, errorsDelta,
+                    millis(interval, 50), millis(interval, 99), millis(interval, 99.9),
+                    interval.getTotalCount() == 0 ? 0 : interval.getMaxValue() / 1000.0, cluster.size(), cluster.shares()));
+        }
+
+        synchronized void summary(int rate, int duration, long unfinished){
+            System.out.println(String.format("throughput %.1f calls/s of %d calls/s scheduled, %d errors, %d unfinished",
+                    (double) completed / duration, rate, errors, unfinished));
+            System.out.println("                     p50      p90      p99    p99.9   p99.99      max (ms)");
+            print("response time", responseTimes);
+            print("service time ", serviceTimes);
+        }
+
+        private static void print(String name, Histogram histogram){
+            System.out.println(String.format("%s %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f", name,
+                    millis(histogram, 50), millis(histogram, 90), millis(histogram, 99),
+                    millis(histogram, 99.9), millis(histogram, 99.99),
+                    histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue() / 1000.0));
+        }
+
+        private static double millis(Histogram histogram, double percentile){
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.louis.thrift.benchmark.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Start calls at a constant rate whatever the latency of the previous calls is (open loop).
+ * The response time of a call is measured from the time it should have started, so that a stall
+ * is seen by every call scheduled during the stall instead of by a single one (coordinated omission).
+ * The service time, measured from the time the call really started, is recorded as well for comparison
+ */
+public class OpenLoopGenerator {
+
+    private final long intervalNanos;
+
+    private final Supplier<CompletableFuture<Long>> call;
+
+    private final Recorder responseTime = new Recorder(3);
+
+    private final Recorder serviceTime = new Recorder(3);
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private volatile boolean running;
+
+    /**
+     * @param ratePerSecond calls started per second
+     * @param call starts a call, completes with the System.nanoTime() the call really started at
+     */
+    public OpenLoopGenerator(int ratePerSecond, Supplier<CompletableFuture<Long>> call) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        this.call = call;
+    }
+
+    /**
+     * start the calls on the current thread until the duration is over or stop() is called
+     * @param duration
+     * @param unit
+     */
+    public void run(long duration, TimeUnit unit){
+        running = true;
+        long start = System.nanoTime();
+        long end = start + unit.toNanos(duration);
+        for (long i = 0; running; i++){
+            long intended = start + i * intervalNanos;
+            if(intended >= end){
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0){
+                LockSupport.parkNanos(wait);
+            }
+            //behind schedule the calls are started right away, still measured from their intended time
+            start(intended);
+        }
+        running = false;
+    }
+
+    private void start(long intended){
+        inFlight.incrementAndGet();
+        CompletableFuture<Long> future;
+        try {
+            future = call.get();
+        }catch (RuntimeException e){
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((started, e) -> {
+            long now = System.nanoTime();
+            inFlight.decrementAndGet();
+            if(e != null){
+                errors.increment();
+                return;
+            }
+            completed.increment();
+            responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+            serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - started));
+        });
+    }
+
+    public void stop(){
+        running = false;
+    }
+
+    /**
+     * @return response times in microseconds since the previous call, corrected for coordinated omission
+     */
+    public Histogram responseTimes(){
+        return responseTime.getIntervalHistogram();
+    }
+
+    /**
+     * @return service times in microseconds since the previous call
+     */
+    public Histogram serviceTimes(){
+        return serviceTime.getIntervalHistogram();
+    }
+
+    public long completed(){
+        return completed.sum();
+    }
+
+    public long errors(){
+        return errors.sum();
+    }
+
+    public long inFlight(){
+        return inFlight.get();
+    }
+}
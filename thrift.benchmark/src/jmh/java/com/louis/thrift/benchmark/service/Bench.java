@@ -0,0 +1,259 @@
+package com.louis.thrift.benchmark.service;
+
+import org.apache.thrift.ProcessFunction;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TBaseProcessor;
+import org.apache.thrift.TException;
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.TServiceClientFactory;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * service Bench of bench.thrift.
+ * Written by hand with the same wire format as the generated code, so the benchmarks build without the thrift compiler
+ */
+public class Bench {
+
+    public interface Iface {
+
+        Payload echo(Payload payload) throws TException;
+    }
+
+    public static class Client extends TServiceClient implements Iface {
+
+        public static class Factory implements TServiceClientFactory<Client> {
+
+            public Factory() {
+            }
+
+            @Override
+            public Client getClient(TProtocol prot) {
+                return new Client(prot);
+            }
+
+            @Override
+            public Client getClient(TProtocol iprot, TProtocol oprot) {
+                return new Client(iprot, oprot);
+            }
+        }
+
+        public Client(TProtocol prot) {
+            super(prot, prot);
+        }
+
+        public Client(TProtocol iprot, TProtocol oprot) {
+            super(iprot, oprot);
+        }
+
+        @Override
+        public Payload echo(Payload payload) throws TException {
+            echo_args args = new echo_args();
+            args.payload = payload;
+            sendBase("echo", args);
+            echo_result result = new echo_result();
+            receiveBase(result, "echo");
+            if (result.success != null) {
+                return result.success;
+            }
+            throw new TApplicationException(TApplicationException.MISSING_RESULT, "echo failed: unknown result");
+        }
+    }
+
+    public static class Processor<I extends Iface> extends TBaseProcessor<I> implements TProcessor {
+
+        public Processor(I iface) {
+            super(iface, getProcessMap(new HashMap<>()));
+        }
+
+        private static <I extends Iface> Map<String, ProcessFunction<I, ? extends TBase>> getProcessMap(Map<String, ProcessFunction<I, ? extends TBase>> processMap) {
+            processMap.put("echo", new echo<>());
+            return processMap;
+        }
+
+        public static class echo<I extends Iface> extends ProcessFunction<I, echo_args> {
+
+            public echo() {
+                super("echo");
+            }
+
+            @Override
+            public echo_args getEmptyArgsInstance() {
+                return new echo_args();
+            }
+
+            @Override
+            protected boolean isOneway() {
+                return false;
+            }
+
+            @Override
+            public echo_result getResult(I iface, echo_args args) throws TException {
+                echo_result result = new echo_result();
+                result.success = iface.echo(args.payload);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * a struct holding a single Payload field
+     */
+    private abstract static class PayloadStruct<T extends PayloadStruct<T>> implements TBase<T, TFieldIdEnum> {
+
+        private final TStruct struct;
+
+        private final TField field;
+
+        PayloadStruct(String name, TField field) {
+            this.struct = new TStruct(name);
+            this.field = field;
+        }
+
+        abstract Payload get();
+
+        abstract void set(Payload payload);
+
+        @Override
+        public void read(TProtocol iprot) throws TException {
+            iprot.readStructBegin();
+            while (true) {
+                TField read = iprot.readFieldBegin();
+                if (read.type == TType.STOP) {
+                    break;
+                }
+                if (read.id == field.id && read.type == TType.STRUCT) {
+                    Payload payload = new Payload();
+                    payload.read(iprot);
+                    set(payload);
+                } else {
+                    TProtocolUtil.skip(iprot, read.type);
+                }
+                iprot.readFieldEnd();
+            }
+            iprot.readStructEnd();
+        }
+
+        @Override
+        public void write(TProtocol oprot) throws TException {
+            oprot.writeStructBegin(struct);
+            if (get() != null) {
+                oprot.writeFieldBegin(field);
+                get().write(oprot);
+                oprot.writeFieldEnd();
+            }
+            oprot.writeFieldStop();
+            oprot.writeStructEnd();
+        }
+
+        @Override
+        public TFieldIdEnum fieldForId(int fieldId) {
+            return null;
+        }
+
+        @Override
+        public boolean isSet(TFieldIdEnum field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getFieldValue(TFieldIdEnum field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setFieldValue(TFieldIdEnum field, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            set(null);
+        }
+
+        @Override
+        public int compareTo(T other) {
+            return 0;
+        }
+    }
+
+    public static class echo_args extends PayloadStruct<echo_args> {
+
+        public Payload payload;
+
+        public echo_args() {
+            super("echo_args", new TField("payload", TType.STRUCT, (short)1));
+        }
+
+        @Override
+        Payload get() {
+            return payload;
+        }
+
+        @Override
+        void set(Payload payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public echo_args deepCopy() {
+            echo_args copy = new echo_args();
+            copy.payload = payload == null ? null : payload.deepCopy();
+            return copy;
+        }
+    }
+
+    public static class echo_result extends PayloadStruct<echo_result> {
+
+        public Payload success;
+
+        public echo_result() {
+            super("echo_result", new TField("success", TType.STRUCT, (short)0));
+        }
+
+        @Override
+        Payload get() {
+            return success;
+        }
+
+        @Override
+        void set(Payload payload) {
+            this.success = payload;
+        }
+
+        @Override
+        public echo_result deepCopy() {
+            echo_result copy = new echo_result();
+            copy.success = success == null ? null : success.deepCopy();
+            return copy;
+        }
+    }
+}
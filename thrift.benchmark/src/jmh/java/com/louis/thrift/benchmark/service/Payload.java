@@ -0,0 +1,218 @@
+package com.louis.thrift.benchmark.service;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TBaseHelper;
+import org.apache.thrift.TException;
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * struct Payload of bench.thrift.
+ * Written by hand with the same wire format as the generated code, so the benchmarks build without the thrift compiler
+ */
+public class Payload implements TBase<Payload, TFieldIdEnum> {
+
+    private static final TStruct STRUCT_DESC = new TStruct("Payload");
+    private static final TField ID_FIELD_DESC = new TField("id", TType.I64, (short)1);
+    private static final TField NAME_FIELD_DESC = new TField("name", TType.STRING, (short)2);
+    private static final TField VALUES_FIELD_DESC = new TField("values", TType.LIST, (short)3);
+    private static final TField BLOB_FIELD_DESC = new TField("blob", TType.STRING, (short)4);
+
+    public long id;
+    public String name;
+    public List<Integer> values;
+    public ByteBuffer blob;
+
+    public Payload() {
+    }
+
+    public Payload(long id, String name, List<Integer> values, ByteBuffer blob) {
+        this.id = id;
+        this.name = name;
+        this.values = values;
+        this.blob = blob;
+    }
+
+    /**
+     * a payload of about the given size in bytes once encoded
+     * @param size
+     * @return
+     */
+    public static Payload ofSize(int size){
+        int count = Math.max(1, size / 16);
+        List<Integer> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            values.add(i * 31);
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < count; i++){
+            name.append('n');
+        }
+        return new Payload(size, name.toString(), values, ByteBuffer.wrap(new byte[Math.max(1, size / 2)]));
+    }
+
+    @Override
+    public void read(TProtocol iprot) throws TException {
+        iprot.readStructBegin();
+        while (true) {
+            TField field = iprot.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            switch (field.id) {
+                case 1:
+                    if (field.type == TType.I64) {
+                        id = iprot.readI64();
+                    } else {
+                        TProtocolUtil.skip(iprot, field.type);
+                    }
+                    break;
+                case 2:
+                    if (field.type == TType.STRING) {
+                        name = iprot.readString();
+                    } else {
+                        TProtocolUtil.skip(iprot, field.type);
+                    }
+                    break;
+                case 3:
+                    if (field.type == TType.LIST) {
+                        TList list = iprot.readListBegin();
+                        values = new ArrayList<>(list.size);
+                        for (int i = 0; i < list.size; i++) {
+                            values.add(iprot.readI32());
+                        }
+                        iprot.readListEnd();
+                    } else {
+                        TProtocolUtil.skip(iprot, field.type);
+                    }
+                    break;
+                case 4:
+                    if (field.type == TType.STRING) {
+                        blob = iprot.readBinary();
+                    } else {
+                        TProtocolUtil.skip(iprot, field.type);
+                    }
+                    break;
+                default:
+                    TProtocolUtil.skip(iprot, field.type);
+            }
+            iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+    }
+
+    @Override
+    public void write(TProtocol oprot) throws TException {
+        oprot.writeStructBegin(STRUCT_DESC);
+        oprot.writeFieldBegin(ID_FIELD_DESC);
+        oprot.writeI64(id);
+        oprot.writeFieldEnd();
+        if (name != null) {
+            oprot.writeFieldBegin(NAME_FIELD_DESC);
+            oprot.writeString(name);
+            oprot.writeFieldEnd();
+        }
+        if (values != null) {
+            oprot.writeFieldBegin(VALUES_FIELD_DESC);
+            oprot.writeListBegin(new TList(TType.I32, values.size()));
+            for (int value : values) {
+                oprot.writeI32(value);
+            }
+            oprot.writeListEnd();
+            oprot.writeFieldEnd();
+        }
+        if (blob != null) {
+            oprot.writeFieldBegin(BLOB_FIELD_DESC);
+            oprot.writeBinary(blob);
+            oprot.writeFieldEnd();
+        }
+        oprot.writeFieldStop();
+        oprot.writeStructEnd();
+    }
+
+    @Override
+    public TFieldIdEnum fieldForId(int fieldId) {
+        return null;
+    }
+
+    @Override
+    public boolean isSet(TFieldIdEnum field) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object getFieldValue(TFieldIdEnum field) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setFieldValue(TFieldIdEnum field, Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Payload deepCopy() {
+        return new Payload(id, name, values == null ? null : new ArrayList<>(values),
+                blob == null ? null : ByteBuffer.wrap(TBaseHelper.byteBufferToByteArray(blob)));
+    }
+
+    @Override
+    public void clear() {
+        id = 0;
+        name = null;
+        values = null;
+        blob = null;
+    }
+
+    @Override
+    public int compareTo(Payload other) {
+        return Long.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Payload)) {
+            return false;
+        }
+        Payload payload = (Payload) o;
+        return id == payload.id && Objects.equals(name, payload.name)
+                && Objects.equals(values, payload.values) && Objects.equals(blob, payload.blob);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, values, blob);
+    }
+}
@@ -0,0 +1,12 @@
+namespace java com.louis.thrift.benchmark.service
+
+struct Payload {
+    1: i64 id,
+    2: string name,
+    3: list<i32> values,
+    4: binary blob
+}
+
+service Bench {
+    Payload echo(1: Payload payload)
+}
@@ -1,7 +1,11 @@
 package com.louis.thrift.client;
 
+import org.apache.thrift.TException;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
@@ -32,4 +36,38 @@ public class Bella {
     public Object proxy(String serviceName){
         return this.map.get(serviceName).getProxy();
     }
+
+    /**
+     * make a blocking call on the proxy of the service without blocking the caller
+     * @param serviceName
+     * @param call
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(String serviceName, Function<Object, T> call){
+        return this.map.get(serviceName).submit(call);
+    }
+
+    /**
+     * make a call on every provider of the service at once, like
+     * bella.broadcast(name, proxy -> ...).timeout(1000).submit(Broadcast.atLeast(2))
+     * @param serviceName
+     * @param call
+     * @param <T>
+     * @return
+     */
+    public <T> Broadcast<T> broadcast(String serviceName, Function<Object, T> call){
+        return this.map.get(serviceName).broadcast(call);
+    }
+
+    /**
+     * open a stream of a method of the service, for payloads too large for a single frame
+     * @param serviceName
+     * @param method
+     * @return
+     * @throws TException
+     */
+    public StreamCall stream(String serviceName, String method) throws TException {
+        return this.map.get(serviceName).stream(method);
+    }
 }
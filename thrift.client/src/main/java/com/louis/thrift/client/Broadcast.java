@@ -0,0 +1,211 @@
+package com.louis.thrift.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * A call made on every provider of a service at once, like a cache invalidation or the collection of stats.
+ * Each provider answers within the timeout or counts as failed, the merger makes one result of the answers,
+ * and decides whether the failures leave enough of them
+ * @param <T> answer of a provider
+ */
+public class Broadcast<T> {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("thrift-client-broadcast-timer").setDaemon(true).build());
+
+    private final ClientProxyFactory clientProxyFactory;
+
+    private final Function<Object, T> call;
+
+    private Predicate<InetSocketAddress> endpoints = endpoint -> true;
+
+    private int timeout = 5000;
+
+    Broadcast(ClientProxyFactory clientProxyFactory, Function<Object, T> call) {
+        this.clientProxyFactory = clientProxyFactory;
+        this.call = call;
+    }
+
+    /**
+     * call only the providers matching
+     * @param endpoints
+     * @return
+     */
+    public Broadcast<T> endpoints(Predicate<InetSocketAddress> endpoints){
+        this.endpoints = endpoints;
+        return this;
+    }
+
+    /**
+     * @param timeout millis a provider may take to answer, the connect and the wait for a connection included
+     * @return
+     */
+    public Broadcast<T> timeout(int timeout){
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @return the answers and the failures of the providers once all of them are in
+     */
+    public CompletableFuture<Result<T>> submit(){
+        List<InetSocketAddress> targets = clientProxyFactory.getServerExposeProvider().getServerAddressList().stream()
+                .filter(endpoints).collect(Collectors.toList());
+        Map<InetSocketAddress, CompletableFuture<T>> calls = new LinkedHashMap<>();
+        for (InetSocketAddress endpoint : targets){
+            CompletableFuture<T> future = clientProxyFactory.submit(endpoint, timeout, call);
+            //the read timeout frees the worker, this one frees the caller from the wait for a connection
+            ScheduledFuture<?> expiry = TIMER.schedule(() -> future.completeExceptionally(
+                    new TimeoutException(endpoint + " didn't answer within " + timeout + "ms")), timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((answer, e) -> expiry.cancel(false));
+            calls.put(endpoint, future);
+        }
+        return CompletableFuture.allOf(calls.values().toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, e) -> new Result<>(calls));
+    }
+
+    /**
+     * @param merger
+     * @param <R>
+     * @return the result of the merger, or its failure
+     */
+    public <R> CompletableFuture<R> submit(Merger<T, R> merger){
+        return submit().thenApply(result -> {
+            try {
+                return merger.merge(result);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * @param <T>
+     * @return the answers, failed unless every provider answered
+     */
+    public static <T> Merger<T, Map<InetSocketAddress, T>> all(){
+        return atLeast(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param count
+     * @param <T>
+     * @return the answers, failed unless as many providers answered, or all of them when there are less
+     */
+    public static <T> Merger<T, Map<InetSocketAddress, T>> atLeast(int count){
+        return result -> {
+            Map<InetSocketAddress, T> answers = result.getAnswers();
+            if(!result.isComplete() && answers.size() < count){
+                Map.Entry<InetSocketAddress, Throwable> failure = result.getFailures().entrySet().iterator().next();
+                throw new BroadcastException(answers.size() + " of " + (answers.size() + result.getFailures().size())
+                        + " providers answered, " + failure.getKey() + " failed : " + failure.getValue().getMessage(), result);
+            }
+            return answers;
+        };
+    }
+
+    /**
+     * makes one result of the answers of the providers
+     * @param <T>
+     * @param <R>
+     */
+    @FunctionalInterface
+    public interface Merger<T, R> {
+
+        R merge(Result<T> result) throws Exception;
+    }
+
+    /**
+     * the answers and the failures of the providers called, by endpoint
+     * @param <T>
+     */
+    public static final class Result<T> {
+
+        private final Map<InetSocketAddress, T> answers = new LinkedHashMap<>();
+
+        private final Map<InetSocketAddress, Throwable> failures = new LinkedHashMap<>();
+
+        Result(Map<InetSocketAddress, CompletableFuture<T>> calls) {
+            calls.forEach((endpoint, future) -> {
+                try {
+                    answers.put(endpoint, future.join());
+                } catch (CompletionException e) {
+                    failures.put(endpoint, e.getCause() != null ? e.getCause() : e);
+                } catch (RuntimeException e) {
+                    failures.put(endpoint, e);
+                }
+            });
+        }
+
+        public Map<InetSocketAddress, T> getAnswers() {
+            return Collections.unmodifiableMap(answers);
+        }
+
+        public Map<InetSocketAddress, Throwable> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return whether every provider called answered
+         */
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+    }
+
+    /**
+     * too few providers answered, the partial result is kept
+     */
+    public static class BroadcastException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Result<?> result;
+
+        public BroadcastException(String message, Result<?> result) {
+            super(message);
+            this.result = result;
+        }
+
+        public Result<?> getResult() {
+            return result;
+        }
+    }
+}
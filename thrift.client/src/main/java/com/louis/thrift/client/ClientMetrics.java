@@ -0,0 +1,151 @@
+package com.louis.thrift.client;
+
+import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Meters of the pool and of the calls of one service.
+ * Meters are looked up by endpoint and method, nothing is allocated once they are registered
+ */
+public class ClientMetrics {
+
+    private final MeterRegistry registry;
+
+    private final String service;
+
+    private final Timer borrow;
+
+    private final Counter exhausted;
+
+    private final Counter retries;
+
+    private final Counter retriesRejected;
+
+    private final Map<InetSocketAddress, Map<Method, CallMeters>> calls = Maps.newConcurrentMap();
+
+    public ClientMetrics(MeterRegistry registry, String service) {
+        this.registry = registry;
+        this.service = service;
+        this.borrow = Timer.builder("thrift.client.pool.borrow")
+                .description("time waiting for a connection from the pool")
+                .tag("service", service)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+        this.exhausted = Counter.builder("thrift.client.pool.exhausted")
+                .description("borrows failed since no connection was available")
+                .tag("service", service)
+                .register(registry);
+        this.retries = Counter.builder("thrift.client.retries")
+                .description("calls retried on another server")
+                .tag("service", service)
+                .register(registry);
+        this.retriesRejected = Counter.builder("thrift.client.retries.rejected")
+                .description("retries not made since the retry budget was spent")
+                .tag("service", service)
+                .register(registry);
+    }
+
+    /**
+     * gauges and counters read from the pool when they are published
+     * @param pool
+     */
+    public void bind(ConnectionPool<?> pool){
+        Gauge.builder("thrift.client.pool.active", pool, ConnectionPool::getNumActive)
+                .tag("service", service).register(registry);
+        Gauge.builder("thrift.client.pool.idle", pool, ConnectionPool::getNumIdle)
+                .tag("service", service).register(registry);
+        Gauge.builder("thrift.client.pool.waiters", pool, ConnectionPool::getNumWaiters)
+                .tag("service", service).register(registry);
+        FunctionCounter.builder("thrift.client.pool.created", pool, ConnectionPool::getCreatedCount)
+                .description("connections opened").tag("service", service).register(registry);
+        FunctionCounter.builder("thrift.client.pool.destroyed", pool, ConnectionPool::getDestroyedCount)
+                .description("connections closed").tag("service", service).register(registry);
+    }
+
+    public void borrowed(long nanos){
+        borrow.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void exhausted(){
+        exhausted.increment();
+    }
+
+    public void retried(){
+        retries.increment();
+    }
+
+    public void retryRejected(){
+        retriesRejected.increment();
+    }
+
+    /**
+     * @param endpoint null if unknown
+     * @param method
+     * @param nanos
+     * @param error
+     */
+    public void called(InetSocketAddress endpoint, Method method, long nanos, boolean error){
+        if(endpoint == null){
+            return;
+        }
+        Map<Method, CallMeters> meters = calls.get(endpoint);
+        if(meters == null){
+            meters = calls.computeIfAbsent(endpoint, key -> Maps.newConcurrentMap());
+        }
+        CallMeters callMeters = meters.get(method);
+        if(callMeters == null){
+            callMeters = meters.computeIfAbsent(method, key -> new CallMeters(endpoint, key));
+        }
+        callMeters.latency.record(nanos, TimeUnit.NANOSECONDS);
+        if(error){
+            callMeters.errors.increment();
+        }
+    }
+
+    private class CallMeters {
+
+        private final Timer latency;
+
+        private final Counter errors;
+
+        CallMeters(InetSocketAddress endpoint, Method method) {
+            String address = endpoint.getHostString() + ":" + endpoint.getPort();
+            this.latency = Timer.builder("thrift.client.requests")
+                    .description("latency of the calls seen by the client")
+                    .tags("service", service, "method", method.getName(), "endpoint", address)
+                    .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                    .register(registry);
+            this.errors = Counter.builder("thrift.client.errors")
+                    .tags("service", service, "method", method.getName(), "endpoint", address)
+                    .register(registry);
+        }
+    }
+}
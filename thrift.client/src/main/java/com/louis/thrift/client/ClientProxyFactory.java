@@ -1,17 +1,45 @@
 package com.louis.thrift.client;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.concurrent.WorkerExecutors;
+import com.louis.thrift.protocol.ProtocolType;
+import com.louis.thrift.provider.LocalServices;
 import com.louis.thrift.provider.ServerExposeProvider;
-import org.apache.commons.pool2.impl.GenericObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TBaseHelper;
+import org.apache.thrift.TException;
 import org.apache.thrift.TServiceClient;
 import org.apache.thrift.TServiceClientFactory;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
@@ -41,10 +69,22 @@ public class ClientProxyFactory implements Closeable {
 
     private ServerExposeProvider serverExposeProvider;
 
-    private GenericObjectPool<TServiceClient> pool;
+    private ThriftClientPoolFactory thriftClientPoolFactory;
+
+    private ConnectionPool<TServiceClient> pool;
+
+    private RetryBudget retryBudget;
+
+    private Set<Method> idempotentMethods;
 
     private Object proxy;
 
+    private ExecutorService executor;
+
+    private MeterRegistry meterRegistry;
+
+    private ClientMetrics metrics;
+
     private ClientProxyFactory(ThriftClientProperties thriftClientProperties){
         this.thriftClientProperties = thriftClientProperties;
     }
@@ -63,6 +103,16 @@ public class ClientProxyFactory implements Closeable {
         return this;
     }
 
+    /**
+     * record the pool and the calls, pass the registry of spring boot actuator to expose them
+     * @param meterRegistry
+     * @return
+     */
+    public ClientProxyFactory meterRegistry(MeterRegistry meterRegistry){
+        this.meterRegistry = meterRegistry;
+        return this;
+    }
+
     /**
      *
      * @return
@@ -74,52 +124,431 @@ public class ClientProxyFactory implements Closeable {
         //load Client.Factory
         Class<TServiceClientFactory<TServiceClient>> clientFactoryClass = (Class<TServiceClientFactory<TServiceClient>>) classLoader.loadClass(serverExposeProvider.getService() + "$Client$Factory");
         TServiceClientFactory<TServiceClient> clientFactory = clientFactoryClass.newInstance();
-        ThriftClientPoolFactory thriftClientPoolFactory = new ThriftClientPoolFactory(serverExposeProvider, clientFactory);
-        GenericObjectPoolConfig genericObjectPoolConfig = new GenericObjectPoolConfig();
-        genericObjectPoolConfig.setMaxTotal(thriftClientProperties.getMaxActive());
-        genericObjectPoolConfig.setMinIdle(thriftClientProperties.getMinIdle());
-        genericObjectPoolConfig.setMaxIdle(thriftClientProperties.getMaxIdle());
-        genericObjectPoolConfig.setMinEvictableIdleTimeMillis(thriftClientProperties.getIdleTime());
-        genericObjectPoolConfig.setTimeBetweenEvictionRunsMillis(thriftClientProperties.getIdleTime() * 2L);
-        pool = new GenericObjectPool<TServiceClient>(thriftClientPoolFactory, genericObjectPoolConfig);
-        proxy = Proxy.newProxyInstance(classLoader, new Class[]{objectClass}, (proxy, method, args) -> {
-            TServiceClient client = pool.borrowObject();
-//            Object obj = method.invoke(client, args);
-//            pool.returnObject(client);
-//            return obj;
+        thriftClientPoolFactory = new ThriftClientPoolFactory(serverExposeProvider, clientFactory);
+        thriftClientPoolFactory.health(thriftClientProperties.getHealth())
+                .ping(classLoader.loadClass(serverExposeProvider.getService() + "$Client"))
+                .connect(thriftClientProperties.getConnect())
+                .sharedMemory(thriftClientProperties.isSharedMemory())
+                .protocol(ProtocolType.of(thriftClientProperties.getProtocol()));
+        //idle connections are probed in the background, the ones to a server which left are closed right away
+        pool = new ConnectionPool<>(thriftClientPoolFactory, thriftClientProperties);
+        serverExposeProvider.addRemovalListener(address -> pool.retire(client -> address.equals(thriftClientPoolFactory.endpointOf(client))));
+        //move a share of the connections to the servers which joined, a few at a time
+        serverExposeProvider.addAdditionListener(address -> pool.rebalance(thriftClientPoolFactory::endpointOf,
+                () -> serverExposeProvider.getServerAddressList().size()));
+        if(meterRegistry != null){
+            metrics = new ClientMetrics(meterRegistry, serverExposeProvider.getService());
+            metrics.bind(pool);
+        }
+        retryBudget = new RetryBudget(thriftClientProperties.getRetry());
+        idempotentMethods = idempotentMethods();
+        proxy = Proxy.newProxyInstance(classLoader, new Class[]{objectClass}, (proxy, method, args) -> invoke(method, args));
+
+        executor = newExecutor();
+        //add shut down hook
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                //e.printStackTrace();
+            }
+        }));
+        return this;
+    }
+
+    /**
+     * methods of the service configured as idempotent, all of them for ${serviceName}:*. They are configured rather
+     * than annotated since the Iface is generated
+     * @return
+     */
+    private Set<Method> idempotentMethods(){
+        Set<Method> methods = Sets.newHashSet();
+        List<String> configured = thriftClientProperties.getRetry().getMethods();
+        boolean all = configured.contains(serverExposeProvider.getService() + ":*");
+        for (Method method : objectClass.getMethods()){
+            if(all || configured.contains(serverExposeProvider.getService() + ":" + method.getName())){
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * call the method on a pooled connection. A call failed on its connection is retried on another server when
+     * the request wasn't sent, or when the method is idempotent, as long as the retry budget of the service allows it
+     * @param method
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    private Object invoke(Method method, Object[] args) throws Throwable {
+        Object handler = thriftClientProperties.getLocal().isEnabled() ? LocalServices.handlerOf(serverExposeProvider.getService()) : null;
+        if(objectClass.isInstance(handler)){
+            return invokeLocally(handler, method, args);
+        }
+        retryBudget.deposit();
+        InetSocketAddress failed = null;
+        for (int attempt = 1; ; attempt++){
+            ConnectionPool.Entry<TServiceClient> entry;
+            try {
+                entry = borrow(failed);
+            }catch (TTransportException e){
+                //the connect failed, rather than the selection of a server
+                if(e.getCause() instanceof IOException && retry(method, attempt, e)){
+                    continue;
+                }
+                throw e;
+            }
+            TServiceClient client = entry.get();
+            InetSocketAddress endpoint = thriftClientPoolFactory.endpointOf(client);
+            long sent = bytesSent(client);
             boolean flag = true;
+            boolean broken = false;
+            long start = System.nanoTime();
             try{
                 return method.invoke(client, args);
+            }catch (InvocationTargetException e){
+                flag = false;
+                Throwable cause = e.getCause();
+                broken = breaks(cause);
+                boolean unsent = sent >= 0 && bytesSent(client) == sent;
+                if(cause instanceof TTransportException && (unsent || idempotentMethods.contains(method))
+                        && retry(method, attempt, cause)){
+                    failed = endpoint;
+                    continue;
+                }
+                if(broken){
+                    logger.error("invoke " + method.getName() + " failed : " + cause.getMessage());
+                }else{
+                    logger.debug("invoke " + method.getName() + " answered " + cause.getClass().getSimpleName() + " : " + cause.getMessage());
+                }
+                throw cause;
             }catch (Exception e){
                 flag = false;
-                logger.error("invoke failed : {}", e);
+                broken = true;
+                logger.error("invoke " + method.getName() + " failed : " + e.getMessage());
                 throw e;
             }finally {
-                if(flag){
-                    pool.returnObject(client);
-                }else{
-                    pool.invalidateObject(client);
+                if(metrics != null){
+                    metrics.called(endpoint, method, System.nanoTime() - start, !flag);
                 }
+                release(entry, broken);
             }
-        });
+        }
+    }
 
-        //add shut down hook
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                close();
-            } catch (IOException e) {
-                //e.printStackTrace();
+    /**
+     * call the method on the handler served in this jvm, skipping the serialization and the socket
+     * @param handler
+     * @param method
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    private Object invokeLocally(Object handler, Method method, Object[] args) throws Throwable {
+        boolean copy = thriftClientProperties.getLocal().isCopy();
+        if(copy && args != null){
+            Object[] copies = new Object[args.length];
+            for (int i = 0; i < args.length; i++){
+                copies[i] = copyOf(args[i]);
             }
-        }));
-        return this;
+            args = copies;
+        }
+        Object result;
+        try {
+            result = method.invoke(handler, args);
+        }catch (InvocationTargetException e){
+            throw served(method, e.getCause());
+        }
+        if(result == null && method.getReturnType() != void.class){
+            throw new TApplicationException(TApplicationException.MISSING_RESULT, method.getName() + " failed: unknown result");
+        }
+        return copy ? copyOf(result) : result;
+    }
+
+    /**
+     * the exception of a handler as the processor of the service answers it: the declared ones and the
+     * TApplicationException as they are, the others as an internal error
+     * @param method
+     * @param cause
+     * @return
+     */
+    private Throwable served(Method method, Throwable cause){
+        if(cause instanceof TApplicationException || cause instanceof Error){
+            return cause;
+        }
+        for (Class<?> declared : method.getExceptionTypes()){
+            if(declared != TException.class && declared.isInstance(cause)){
+                return cause;
+            }
+        }
+        logger.error("local call of " + method.getName() + " failed : " + cause.getMessage());
+        return new TApplicationException(TApplicationException.INTERNAL_ERROR, "Internal error processing " + method.getName());
+    }
+
+    /**
+     * deep copy of a value of a thrift type, the immutable ones are shared
+     * @param value
+     * @return
+     */
+    private static Object copyOf(Object value){
+        if(value instanceof TBase){
+            return ((TBase<?, ?>) value).deepCopy();
+        }
+        if(value instanceof ByteBuffer){
+            return TBaseHelper.copyBinary((ByteBuffer) value);
+        }
+        if(value instanceof List){
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value){
+                copy.add(copyOf(element));
+            }
+            return copy;
+        }
+        if(value instanceof Set){
+            Set<Object> copy = Sets.newHashSetWithExpectedSize(((Set<?>) value).size());
+            for (Object element : (Set<?>) value){
+                copy.add(copyOf(element));
+            }
+            return copy;
+        }
+        if(value instanceof Map){
+            Map<Object, Object> copy = Maps.newHashMapWithExpectedSize(((Map<?, ?>) value).size());
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()){
+                copy.put(copyOf(entry.getKey()), copyOf(entry.getValue()));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * call the method on a pooled connection to the endpoint, the read timeout set for the call
+     * @param endpoint
+     * @param timeout millis
+     * @param deadline nano time the wait for a connection may last until
+     * @param method
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    private Object invoke(InetSocketAddress endpoint, int timeout, long deadline, Method method, Object[] args) throws Throwable {
+        ConnectionPool.Entry<TServiceClient> entry = borrowFrom(endpoint,
+                Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        TServiceClient client = entry.get();
+        TTransport transport = client.getInputProtocol().getTransport();
+        boolean flag = true;
+        boolean broken = false;
+        long start = System.nanoTime();
+        try{
+            ThriftClientPoolFactory.timeout(transport, timeout);
+            return method.invoke(client, args);
+        }catch (InvocationTargetException e){
+            flag = false;
+            broken = breaks(e.getCause());
+            throw e.getCause();
+        }catch (Exception e){
+            flag = false;
+            broken = true;
+            throw e;
+        }finally {
+            if(metrics != null){
+                metrics.called(endpoint, method, System.nanoTime() - start, !flag);
+            }
+            if(!broken){
+                ThriftClientPoolFactory.resetTimeout(transport);
+            }
+            release(entry, broken);
+        }
+    }
+
+    /**
+     * @param method
+     * @param attempt
+     * @param cause
+     * @return whether the call may be made once more
+     */
+    private boolean retry(Method method, int attempt, Throwable cause){
+        if(attempt >= thriftClientProperties.getRetry().getMaxAttempts()){
+            return false;
+        }
+        if(!retryBudget.tryWithdraw(System.nanoTime())){
+            if(metrics != null){
+                metrics.retryRejected();
+            }
+            return false;
+        }
+        if(metrics != null){
+            metrics.retried();
+        }
+        logger.debug("retry " + method.getName() + " on another server : " + cause.getMessage());
+        return true;
+    }
+
+    /**
+     * @param client
+     * @return bytes the client sent, -1 if unknown
+     */
+    private static long bytesSent(TServiceClient client){
+        TTransport transport = client.getOutputProtocol().getTransport();
+        return transport instanceof PooledFramedTransport ? ((PooledFramedTransport) transport).getBytesSent() : -1;
+    }
+
+    /**
+     * @param failed the endpoint a retried call failed on, null for the first attempt
+     * @return
+     * @throws Exception
+     */
+    ConnectionPool.Entry<TServiceClient> borrow(InetSocketAddress failed) throws Exception {
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            if(failed == null){
+                return pool.borrow();
+            }
+            //an idle connection to another server, else one opened to another server
+            return thriftClientPoolFactory.avoiding(failed,
+                    () -> pool.borrow(client -> !failed.equals(thriftClientPoolFactory.endpointOf(client))));
+        }catch (NoSuchElementException e){
+            if(metrics != null){
+                metrics.exhausted();
+            }
+            throw e;
+        }finally {
+            if(metrics != null){
+                metrics.borrowed(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * a pooled connection to the endpoint
+     * @param endpoint
+     * @return
+     * @throws Exception
+     */
+    ConnectionPool.Entry<TServiceClient> borrowFrom(InetSocketAddress endpoint) throws Exception {
+        return borrowFrom(endpoint, thriftClientProperties.getMaxWait());
+    }
+
+    /**
+     * @param endpoint
+     * @param maxWaitMillis millis to wait for a connection returned, negative to wait as long as it takes
+     * @return
+     * @throws Exception
+     */
+    ConnectionPool.Entry<TServiceClient> borrowFrom(InetSocketAddress endpoint, long maxWaitMillis) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return thriftClientPoolFactory.towards(endpoint,
+                    () -> pool.borrow(client -> endpoint.equals(thriftClientPoolFactory.endpointOf(client)), maxWaitMillis));
+        }finally {
+            if(metrics != null){
+                metrics.borrowed(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * give the connection back to the pool, or close it when the call broke it
+     * @param entry
+     * @param broken
+     */
+    void release(ConnectionPool.Entry<TServiceClient> entry, boolean broken){
+        if(broken){
+            pool.invalidate(entry);
+        }else{
+            pool.release(entry);
+        }
+    }
+
+    /**
+     * the declared exceptions and the application ones are read to their end, the connection goes on,
+     * unlike after a failed transport, a corrupted or unsynchronized protocol, or a failure of the client itself
+     * @param cause thrown by a call
+     * @return whether the connection must be closed
+     */
+    static boolean breaks(Throwable cause){
+        if(cause instanceof TApplicationException){
+            int type = ((TApplicationException) cause).getType();
+            return type == TApplicationException.BAD_SEQUENCE_ID || type == TApplicationException.WRONG_METHOD_NAME;
+        }
+        return !(cause instanceof TException) || cause instanceof TTransportException || cause instanceof TProtocolException;
+    }
+
+    InetSocketAddress endpointOf(TServiceClient client){
+        return thriftClientPoolFactory.endpointOf(client);
+    }
+
+    TProtocol protocolOf(TServiceClient client, String service){
+        return thriftClientPoolFactory.protocolOf(client, service);
+    }
+
+    /**
+     * open a stream of the method on a provider, its payloads go in chunks rather than in a single frame
+     * @param method
+     * @return
+     * @throws TException when the provider refuses it
+     */
+    public StreamCall stream(String method) throws TException {
+        return new StreamCall(this, serverExposeProvider.getService(), method, thriftClientProperties.getStreamChunkSize()).open();
     }
 
     public Object getProxy() {
         return proxy;
     }
 
+    private ExecutorService newExecutor(){
+        String prefix = "thrift-client-" + serverExposeProvider.getService() + "-";
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(prefix + "%d").setDaemon(true).build();
+        int maxActive = thriftClientProperties.getMaxActive();
+        return WorkerExecutors.newExecutor(thriftClientProperties.getWorkerMode(), prefix,
+                () -> maxActive > 0 ? Executors.newFixedThreadPool(maxActive, threadFactory) : Executors.newCachedThreadPool(threadFactory));
+    }
+
+    /**
+     * run a blocking call on the proxy in the worker threads of the client
+     * @param call
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(Function<Object, T> call){
+        return CompletableFuture.supplyAsync(() -> call.apply(proxy), executor);
+    }
+
+    /**
+     * call every provider of the service, or some of them, at once
+     * @param call made on the proxy of each provider
+     * @param <T>
+     * @return
+     */
+    public <T> Broadcast<T> broadcast(Function<Object, T> call){
+        return new Broadcast<>(this, call);
+    }
+
+    /**
+     * run a blocking call on a proxy of one provider in the worker threads of the client
+     * @param endpoint
+     * @param timeout millis each call of it may take, the wait for a connection lasts until the timeout from now
+     * @param call
+     * @param <T>
+     * @return
+     */
+    <T> CompletableFuture<T> submit(InetSocketAddress endpoint, int timeout, Function<Object, T> call){
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        Object target = Proxy.newProxyInstance(objectClass.getClassLoader(), new Class<?>[]{objectClass},
+                (proxy, method, args) -> invoke(endpoint, timeout, deadline, method, args));
+        return CompletableFuture.supplyAsync(() -> call.apply(target), executor);
+    }
+
+    public ServerExposeProvider getServerExposeProvider() {
+        return serverExposeProvider;
+    }
+
     @Override
     public void close() throws IOException {
+        if(executor != null){
+            executor.shutdown();
+        }
         if(pool != null){
             pool.close();
         }
@@ -0,0 +1,112 @@
+package com.louis.thrift.client;
+
+import com.louis.thrift.client.props.ThriftClientProperties;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Connects to one endpoint: a token bucket spaces them out, so that the pools reconnecting to a server
+ * which restarted don't flood its accept queue, and once they fail the endpoint backs off exponentially,
+ * the backoff drawn between half and all of it so that the clients don't come back together
+ */
+class ConnectThrottle {
+
+    private final double tokensPerNano;
+
+    private final int burst;
+
+    private final long backoffBaseNanos;
+
+    private final long backoffMaxNanos;
+
+    private double tokens;
+
+    private long refilledAt = System.nanoTime();
+
+    private int failures;
+
+    private long backoffUntil;
+
+    ConnectThrottle(ThriftClientProperties.Connect connect) {
+        this.tokensPerNano = connect.getRate() / (double) TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, connect.getBurst());
+        this.backoffBaseNanos = TimeUnit.MILLISECONDS.toNanos(connect.getBackoffBase());
+        this.backoffMaxNanos = TimeUnit.MILLISECONDS.toNanos(connect.getBackoffMax());
+        this.tokens = burst;
+    }
+
+    /**
+     * @param now
+     * @return nanos before a connect may start, 0 if it may start now
+     */
+    synchronized long availableIn(long now){
+        if(now - backoffUntil < 0){
+            return backoffUntil - now;
+        }
+        refill(now);
+        if(tokens >= 1 || tokensPerNano <= 0){
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * take the permit of a connect
+     * @param now
+     * @return false if the endpoint backs off or the connects are spent
+     */
+    synchronized boolean tryAcquire(long now){
+        if(availableIn(now) > 0){
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    private void refill(long now){
+        if(tokensPerNano <= 0){
+            return;
+        }
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+
+    synchronized void succeeded(){
+        failures = 0;
+    }
+
+    /**
+     * @param now
+     * @return nanos the endpoint backs off
+     */
+    synchronized long failed(long now){
+        failures++;
+        long backoff = backoffBaseNanos << Math.min(failures - 1, 30);
+        if(backoff <= 0 || backoff > backoffMaxNanos){
+            backoff = backoffMaxNanos;
+        }
+        backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        backoffUntil = now + backoff;
+        return backoff;
+    }
+}
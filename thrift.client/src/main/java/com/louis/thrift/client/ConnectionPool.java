@@ -0,0 +1,644 @@
+package com.louis.thrift.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Connection pool in the style of a concurrent bag, nothing is locked to borrow or to return a connection.
+ * A thread takes back the connection it returned last, else claims an idle one with a compare and set,
+ * scanning from an index of its own so that the threads don't race for the same entries.
+ * Only the threads finding no connection and no room for a new one wait, the returned connections
+ * are handed off to them directly.
+ * Nothing is checked on borrow: a few shared prober threads probe the idle connections and close the broken ones,
+ * a shared housekeeping thread closes the ones idle past idleTime, down to minIdle, which a refill thread
+ * of the pool opens again.
+ * Connections are closed once returned past maxLifetime, up to a tenth earlier so that the connections
+ * opened together are not all opened again together
+ * @param <T>
+ */
+public class ConnectionPool<T> implements Closeable {
+
+    private static final int IDLE = 0;
+
+    private static final int IN_USE = 1;
+
+    private static final int REMOVED = -1;
+
+    /**
+     * pause between two steps of a rebalance
+     */
+    private static final long REBALANCE_STEP_MILLIS = 500;
+
+    /**
+     * longest a waiter polls for a hand off before it looks into the pool again
+     */
+    private static final long POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final ScheduledExecutorService HOUSEKEEPER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("thrift-client-pool-housekeeper").setDaemon(true).build());
+
+    /**
+     * the refills wait for the connects, which back off while a provider is down,
+     * a pool refills on one thread at most and never holds the housekeeping
+     */
+    private static final ExecutorService REFILLER = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("thrift-client-pool-refill-%d").setDaemon(true).build());
+
+    /**
+     * the probes wait for the pings, apart from the housekeeping so that it is never held by a slow server
+     */
+    private static final ScheduledExecutorService PROBER = Executors.newScheduledThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("thrift-client-pool-prober-%d").setDaemon(true).build());
+
+    private final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final Factory<T> factory;
+
+    private final int maxActive;
+
+    private final int maxIdle;
+
+    private final int minIdle;
+
+    private final long idleNanos;
+
+    private final long maxWaitMillis;
+
+    private final long maxLifetimeNanos;
+
+    /**
+     * copied on write, only when a connection is opened or closed
+     */
+    private volatile Entry<T>[] entries = noEntries();
+
+    /**
+     * connections opened or being opened
+     */
+    private final AtomicInteger total = new AtomicInteger();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final SynchronousQueue<Entry<T>> handoff = new SynchronousQueue<>(true);
+
+    private final ThreadLocal<Entry<T>> last = new ThreadLocal<>();
+
+    /**
+     * handed off when a connection is closed, the waiter may open another one
+     */
+    private final Entry<T> vacancy = new Entry<>(null, REMOVED);
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong destroyed = new AtomicLong();
+
+    private final ScheduledFuture<?> housekeeping;
+
+    private final ScheduledFuture<?> probing;
+
+    /**
+     * longest a probe pass lasts, the next one goes on from the connection it stopped at
+     */
+    private final long probeNanos;
+
+    private int probeFrom;
+
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private volatile boolean rebalanceRequested;
+
+    private volatile boolean closed;
+
+    public ConnectionPool(Factory<T> factory, ThriftClientProperties thriftClientProperties) {
+        this.factory = factory;
+        this.maxActive = thriftClientProperties.getMaxActive();
+        this.maxIdle = thriftClientProperties.getMaxIdle();
+        this.minIdle = thriftClientProperties.getMinIdle();
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(thriftClientProperties.getIdleTime());
+        this.maxWaitMillis = thriftClientProperties.getMaxWait();
+        this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(thriftClientProperties.getMaxLifetime());
+        long period = Math.max(1, thriftClientProperties.getIdleTime() * 2L);
+        this.housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+        long interval = thriftClientProperties.getHealth().getInterval();
+        this.probeNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.probing = interval > 0 ? PROBER.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] noEntries(){
+        return (Entry<T>[]) new Entry<?>[0];
+    }
+
+    /**
+     * an idle connection, a new one if there is room, else the first one returned
+     * @return
+     * @throws NoSuchElementException if none is returned within maxWait
+     * @throws Exception failure of the factory
+     */
+    public Entry<T> borrow() throws Exception {
+        return borrow(null);
+    }
+
+    /**
+     * an idle connection matching, like one to another server than the one a call failed on,
+     * else a new one opened where the factory decides
+     * @param acceptable null for any
+     * @return
+     * @throws NoSuchElementException if none is returned within maxWait
+     * @throws Exception failure of the factory
+     */
+    public Entry<T> borrow(Predicate<T> acceptable) throws Exception {
+        return borrow(acceptable, maxWaitMillis);
+    }
+
+    /**
+     * @param acceptable null for any
+     * @param maxWaitMillis millis to wait for a connection returned, negative to wait as long as it takes
+     * @return
+     * @throws NoSuchElementException if none is returned within maxWaitMillis
+     * @throws Exception failure of the factory
+     */
+    public Entry<T> borrow(Predicate<T> acceptable, long maxWaitMillis) throws Exception {
+        if(closed){
+            throw new IllegalStateException("Pool closed");
+        }
+        Entry<T> entry = take(acceptable);
+        if(entry == null){
+            entry = create();
+        }
+        if(entry == null){
+            entry = await(acceptable, maxWaitMillis, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis)));
+        }
+        return entry;
+    }
+
+    /**
+     * the connection borrowed is idle again
+     * @param entry
+     */
+    public void release(Entry<T> entry){
+        long now = System.nanoTime();
+        if(closed || entry.retired || expired(entry, now)){
+            remove(entry);
+            return;
+        }
+        entry.lastUsed = now;
+        entry.state.set(IDLE);
+        last.set(entry);
+        handOff(entry);
+    }
+
+    private boolean expired(Entry<T> entry, long now){
+        return maxLifetimeNanos > 0 && now - entry.expiresAt >= 0;
+    }
+
+    /**
+     * the connection borrowed is broken, close it
+     * @param entry
+     */
+    public void invalidate(Entry<T> entry){
+        remove(entry);
+    }
+
+    /**
+     * close the idle connections matching, the borrowed ones once they are returned
+     * @param predicate
+     */
+    public void retire(Predicate<T> predicate){
+        for (Entry<T> entry : entries){
+            if(predicate.test(entry.object)){
+                entry.retired = true;
+                if(entry.state.compareAndSet(IDLE, REMOVED)){
+                    remove(entry);
+                }
+            }
+        }
+    }
+
+    private static <T> boolean accepts(Predicate<T> acceptable, Entry<T> entry){
+        return acceptable == null || acceptable.test(entry.object);
+    }
+
+    private Entry<T> take(Predicate<T> acceptable){
+        Entry<T> entry = last.get();
+        if(entry != null && accepts(acceptable, entry)){
+            if(entry.state.compareAndSet(IDLE, IN_USE)){
+                return entry;
+            }
+            if(entry.state.get() == REMOVED){
+                //closed, the thread opens one in its place rather than taking the one of another thread
+                last.remove();
+                return null;
+            }
+        }
+        Entry<T>[] entries = this.entries;
+        int length = entries.length;
+        if(length == 0){
+            return null;
+        }
+        int start = (int) ((Thread.currentThread().getId() & Integer.MAX_VALUE) % length);
+        for (int i = 0; i < length; i++){
+            entry = entries[(start + i) % length];
+            if(entry.state.get() == IDLE && accepts(acceptable, entry) && entry.state.compareAndSet(IDLE, IN_USE)){
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return null if there are maxActive connections already
+     * @throws Exception
+     */
+    private Entry<T> create() throws Exception {
+        int count;
+        do {
+            count = total.get();
+            if(maxActive >= 0 && count >= maxActive){
+                return null;
+            }
+        }while (!total.compareAndSet(count, count + 1));
+        try {
+            Entry<T> entry = new Entry<>(factory.create(), IN_USE);
+            if(maxLifetimeNanos > 0){
+                entry.expiresAt = entry.lastUsed + maxLifetimeNanos - ThreadLocalRandom.current().nextLong(maxLifetimeNanos / 10 + 1);
+            }
+            synchronized (this){
+                Entry<T>[] grown = Arrays.copyOf(entries, entries.length + 1);
+                grown[entries.length] = entry;
+                entries = grown;
+            }
+            created.incrementAndGet();
+            return entry;
+        }catch (Exception e){
+            total.decrementAndGet();
+            handOff(vacancy);
+            throw e;
+        }
+    }
+
+    private Entry<T> await(Predicate<T> acceptable, long maxWaitMillis, long deadline) throws Exception {
+        waiters.incrementAndGet();
+        try {
+            while (true){
+                //returned or closed before this thread was counted
+                Entry<T> entry = take(acceptable);
+                if(entry == null){
+                    entry = create();
+                }
+                if(entry == null && acceptable != null){
+                    entry = swap(acceptable);
+                }
+                if(entry != null){
+                    return entry;
+                }
+                if(closed){
+                    throw new IllegalStateException("Pool closed");
+                }
+                long remaining = maxWaitMillis < 0 ? Long.MAX_VALUE : deadline - System.nanoTime();
+                if(remaining <= 0){
+                    throw new NoSuchElementException("Timeout waiting for idle object");
+                }
+                entry = handoff.poll(Math.min(remaining, POLL_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                if(entry != null && entry != vacancy && entry.state.compareAndSet(IDLE, IN_USE)){
+                    if(accepts(acceptable, entry)){
+                        return entry;
+                    }
+                    //another waiter may take it, else it stays idle for the next borrow
+                    entry.state.set(IDLE);
+                    handOff(entry);
+                }
+            }
+        }finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * close an idle connection not matching, to open one matching in its room
+     * @param acceptable
+     * @return null if none is idle, or the room was taken by another thread
+     * @throws Exception failure of the factory
+     */
+    private Entry<T> swap(Predicate<T> acceptable) throws Exception {
+        for (Entry<T> entry : entries){
+            if(entry.state.get() == IDLE && !accepts(acceptable, entry) && entry.state.compareAndSet(IDLE, REMOVED)){
+                discard(entry);
+                return create();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * give the connection, or the room left by one, to a thread polling for it, without waiting for one.
+     * A waiter missing it finds it on its next take, at most a poll slice later
+     * @param entry
+     */
+    private void handOff(Entry<T> entry){
+        if(waiters.get() > 0 && (entry == vacancy || entry.state.get() == IDLE)){
+            handoff.offer(entry);
+        }
+    }
+
+    private void remove(Entry<T> entry){
+        discard(entry);
+        handOff(vacancy);
+    }
+
+    private void discard(Entry<T> entry){
+        entry.state.set(REMOVED);
+        synchronized (this){
+            Entry<T>[] entries = this.entries;
+            for (int i = 0; i < entries.length; i++){
+                if(entries[i] == entry){
+                    Entry<T>[] shrunk = Arrays.copyOf(entries, entries.length - 1);
+                    System.arraycopy(entries, i + 1, shrunk, i, entries.length - i - 1);
+                    this.entries = shrunk;
+                    break;
+                }
+            }
+        }
+        total.decrementAndGet();
+        destroyed.incrementAndGet();
+        try {
+            factory.destroy(entry.object);
+        }catch (Exception e){
+            logger.warn("destroy connection failed : " + e.getMessage());
+        }
+    }
+
+    /**
+     * spread the connections evenly over the keys, a few at a time: each step retires at most a tenth
+     * of the connections among those beyond the share of their key, until no key is beyond its share.
+     * The threads which used them open new ones, where the factory chooses
+     * @param keyOf key of a connection, like its endpoint, null to leave it out
+     * @param keys number of keys
+     */
+    public void rebalance(Function<T, ?> keyOf, IntSupplier keys){
+        rebalanceRequested = true;
+        if(!closed && rebalancing.compareAndSet(false, true)){
+            HOUSEKEEPER.schedule(() -> rebalanceStep(keyOf, keys), REBALANCE_STEP_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void rebalanceStep(Function<T, ?> keyOf, IntSupplier keys){
+        rebalanceRequested = false;
+        int retired = 0;
+        try {
+            Map<Object, List<Entry<T>>> byKey = new HashMap<>();
+            int count = 0;
+            for (Entry<T> entry : entries){
+                Object key = entry.retired ? null : keyOf.apply(entry.object);
+                if(key != null){
+                    byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+                    count++;
+                }
+            }
+            int keyCount = keys.getAsInt();
+            if(keyCount > 1 && count > 0){
+                int share = (count + keyCount - 1) / keyCount;
+                int budget = Math.max(1, count / 10);
+                for (List<Entry<T>> connections : byKey.values()){
+                    for (int i = share; i < connections.size() && retired < budget; i++){
+                        Entry<T> entry = connections.get(i);
+                        entry.retired = true;
+                        if(entry.state.compareAndSet(IDLE, REMOVED)){
+                            remove(entry);
+                        }
+                        retired++;
+                    }
+                }
+                if(retired > 0){
+                    logger.info("rebalance " + count + " connections over " + keyCount + " endpoints, " + retired + " retired");
+                }
+            }
+        }catch (Exception e){
+            logger.warn("rebalance connections failed : " + e.getMessage());
+        }finally {
+            if(!closed && (retired > 0 || rebalanceRequested)){
+                HOUSEKEEPER.schedule(() -> rebalanceStep(keyOf, keys), REBALANCE_STEP_MILLIS, TimeUnit.MILLISECONDS);
+            }else{
+                rebalancing.set(false);
+                if(rebalanceRequested){
+                    rebalance(keyOf, keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * validate the idle connections, each one is held while it is probed, the idle time is kept.
+     * A pass stops after the interval of the probes, the pings of a slow server don't delay the others for long
+     */
+    private void probe(){
+        Entry<T>[] entries = this.entries;
+        long deadline = System.nanoTime() + probeNanos;
+        int from = entries.length == 0 ? 0 : probeFrom % entries.length;
+        for (int i = 0; i < entries.length; i++){
+            if(closed){
+                return;
+            }
+            if(System.nanoTime() - deadline > 0){
+                probeFrom = from + i;
+                return;
+            }
+            Entry<T> entry = entries[(from + i) % entries.length];
+            if(!entry.state.compareAndSet(IDLE, IN_USE)){
+                continue;
+            }
+            boolean valid;
+            try {
+                valid = factory.validate(entry.object);
+            }catch (RuntimeException e){
+                logger.warn("probe connection failed : " + e.getMessage());
+                valid = false;
+            }
+            if(valid && !closed && !entry.retired){
+                entry.state.set(IDLE);
+                handOff(entry);
+            }else{
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * close the connections idle for idleTime or beyond maxIdle, then open up to minIdle
+     */
+    private void evict(){
+        try {
+            long now = System.nanoTime();
+            int idle = getNumIdle();
+            for (Entry<T> entry : entries){
+                boolean stale = now - entry.lastUsed > idleNanos && idle > minIdle;
+                boolean surplus = maxIdle >= 0 && idle > maxIdle;
+                boolean expired = expired(entry, now);
+                if((stale || surplus || expired) && entry.state.compareAndSet(IDLE, REMOVED)){
+                    idle--;
+                    remove(entry);
+                }
+            }
+        }catch (Exception e){
+            logger.warn("evict connections failed : " + e.getMessage());
+        }
+        if(!closed && getNumIdle() < minIdle && refilling.compareAndSet(false, true)){
+            REFILLER.execute(this::refill);
+        }
+    }
+
+    /**
+     * open connections up to minIdle
+     */
+    private void refill(){
+        try {
+            while (!closed && getNumIdle() < minIdle){
+                Entry<T> entry = create();
+                if(entry == null){
+                    break;
+                }
+                release(entry);
+            }
+        }catch (Exception e){
+            logger.warn("refill connections failed : " + e.getMessage());
+        }finally {
+            refilling.set(false);
+        }
+    }
+
+    public int getNumActive(){
+        return count(IN_USE);
+    }
+
+    public int getNumIdle(){
+        return count(IDLE);
+    }
+
+    private int count(int state){
+        int count = 0;
+        for (Entry<T> entry : entries){
+            if(entry.state.get() == state){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getNumWaiters(){
+        return waiters.get();
+    }
+
+    public long getCreatedCount(){
+        return created.get();
+    }
+
+    public long getDestroyedCount(){
+        return destroyed.get();
+    }
+
+    /**
+     * close the idle connections, the borrowed ones are closed when they are returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeping.cancel(false);
+        if(probing != null){
+            probing.cancel(false);
+        }
+        for (Entry<T> entry : entries){
+            if(entry.state.compareAndSet(IDLE, REMOVED)){
+                remove(entry);
+            }
+        }
+        //the waiters see the pool closed on their next poll slice
+        handOff(vacancy);
+    }
+
+    /**
+     * a pooled connection
+     * @param <T>
+     */
+    public static final class Entry<T> {
+
+        private final T object;
+
+        private final AtomicInteger state;
+
+        private volatile long lastUsed = System.nanoTime();
+
+        private volatile boolean retired;
+
+        private long expiresAt;
+
+        private Entry(T object, int state) {
+            this.object = object;
+            this.state = new AtomicInteger(state);
+        }
+
+        public T get() {
+            return object;
+        }
+    }
+
+    /**
+     * opens, checks and closes the connections of the pool
+     * @param <T>
+     */
+    public interface Factory<T> {
+
+        T create() throws Exception;
+
+        /**
+         * probe of an idle connection, in a prober thread
+         * @param object
+         * @return false to close it
+         */
+        boolean validate(T object);
+
+        void destroy(T object) throws Exception;
+    }
+}
@@ -0,0 +1,369 @@
+package com.louis.thrift.client;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolDecorator;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Framed client transport reusing its buffers from one call to the other, where TFramedTransport allocates
+ * a read buffer per frame. The frame is written into a direct buffer with room for its size in front and
+ * goes out in a single write, responses are read into a recycled array the protocol decodes in place.
+ * The transport lives as long as the pooled connection, so are the buffers
+ */
+public class PooledFramedTransport extends TTransport {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * buffers grown above this size by a large frame are dropped once the frame is done
+     */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384000;
+
+    private static final SocketOption<Integer> TCP_KEEPIDLE = extendedOption("TCP_KEEPIDLE");
+
+    private static final SocketOption<Integer> TCP_KEEPINTERVAL = extendedOption("TCP_KEEPINTERVAL");
+
+    private static final SocketOption<Integer> TCP_KEEPCOUNT = extendedOption("TCP_KEEPCOUNT");
+
+    private final InetSocketAddress address;
+
+    private final int timeout;
+
+    private final int maxFrameSize;
+
+    private SocketChannel channel;
+
+    private InputStream input;
+
+    private ByteBuffer writeBuffer = newWriteBuffer(DEFAULT_BUFFER_SIZE);
+
+    private byte[] readBuffer = new byte[DEFAULT_BUFFER_SIZE];
+
+    private int readPosition;
+
+    private int readLimit;
+
+    private final byte[] header = new byte[4];
+
+    private final ByteBuffer peek = ByteBuffer.allocate(1);
+
+    private long bytesSent;
+
+    private int connectTimeout;
+
+    private int keepAliveIdle;
+
+    private int keepAliveInterval;
+
+    private int keepAliveCount;
+
+    public PooledFramedTransport(InetSocketAddress address) {
+        this(address, 0, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param address
+     * @param timeout socket timeout in millis, 0 for none
+     * @param maxFrameSize
+     */
+    public PooledFramedTransport(InetSocketAddress address, int timeout, int maxFrameSize) {
+        this.address = address;
+        this.timeout = timeout;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @param connectTimeout millis, 0 to use the socket timeout
+     * @return
+     */
+    public PooledFramedTransport connectTimeout(int connectTimeout){
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * tcp keepalive in seconds, set on open where the jdk supports them, 0 keeps the os default
+     * @param idle before the first probe
+     * @param interval between the probes
+     * @param count probes lost before the connection is reset
+     * @return
+     */
+    public PooledFramedTransport keepAlive(int idle, int interval, int count){
+        this.keepAliveIdle = idle;
+        this.keepAliveInterval = interval;
+        this.keepAliveCount = count;
+        return this;
+    }
+
+    /**
+     * options of jdk.net.ExtendedSocketOptions, missing before java 11 on most platforms
+     * @param name
+     * @return null if missing
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Integer> extendedOption(String name){
+        try {
+            return (SocketOption<Integer>) Class.forName("jdk.net.ExtendedSocketOptions").getField(name).get(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private void setOption(SocketOption<Integer> option, int value) throws IOException {
+        if(option != null && value > 0 && channel.supportedOptions().contains(option)){
+            channel.setOption(option, value);
+        }
+    }
+
+    private static ByteBuffer newWriteBuffer(int capacity){
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        //room for the frame size
+        buffer.position(4);
+        return buffer;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void open() throws TTransportException {
+        if(isOpen()){
+            throw new TTransportException(TTransportException.ALREADY_OPEN, "Socket already connected.");
+        }
+        try {
+            channel = SocketChannel.open();
+            Socket socket = channel.socket();
+            socket.setSoLinger(false, 0);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            setOption(TCP_KEEPIDLE, keepAliveIdle);
+            setOption(TCP_KEEPINTERVAL, keepAliveInterval);
+            setOption(TCP_KEEPCOUNT, keepAliveCount);
+            socket.setSoTimeout(timeout);
+            socket.connect(address, connectTimeout > 0 ? connectTimeout : timeout);
+            //the stream of a channel socket honours the socket timeout, a blocking channel read does not
+            input = socket.getInputStream();
+        } catch (IOException e) {
+            close();
+            throw new TTransportException(TTransportException.NOT_OPEN, e);
+        }
+    }
+
+    /**
+     * whether an idle connection is still usable: a peer which closed or reset it, or bytes
+     * no call waits for, show up in a read which doesn't block
+     * @return
+     */
+    public boolean isAlive(){
+        if(channel == null){
+            return false;
+        }
+        try {
+            channel.configureBlocking(false);
+            try {
+                return channel.read(peek) == 0;
+            }finally {
+                peek.clear();
+                channel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return socket timeout in millis the transport was created with, 0 for none
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout socket timeout in millis, 0 for none, of the socket only
+     */
+    public void setTimeout(int timeout){
+        if(channel != null){
+            try {
+                channel.socket().setSoTimeout(timeout);
+            } catch (SocketException e) {
+                //nothing to do
+            }
+        }
+    }
+
+    /**
+     * bytes written to the socket, a call failed without moving it never reached the server
+     * @return
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public void close() {
+        if(channel != null){
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //nothing to do
+            }
+            channel = null;
+            input = null;
+        }
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        if(readPosition == readLimit){
+            readFrame();
+        }
+        int got = Math.min(len, readLimit - readPosition);
+        System.arraycopy(readBuffer, readPosition, buf, off, got);
+        readPosition += got;
+        return got;
+    }
+
+    private void readFrame() throws TTransportException {
+        readFully(header, 4);
+        int size = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        if(size < 0 || size > maxFrameSize){
+            close();
+            throw new TTransportException(TTransportException.CORRUPTED_DATA, "Frame size (" + size + ") is out of range [0, " + maxFrameSize + "]");
+        }
+        if(size > readBuffer.length || (readBuffer.length > MAX_RETAINED_SIZE && size <= DEFAULT_BUFFER_SIZE)){
+            readBuffer = new byte[Math.max(size, DEFAULT_BUFFER_SIZE)];
+        }
+        readFully(readBuffer, size);
+        readPosition = 0;
+        readLimit = size;
+    }
+
+    private void readFully(byte[] buf, int len) throws TTransportException {
+        if(input == null){
+            throw new TTransportException(TTransportException.NOT_OPEN, "Cannot read from null inputStream");
+        }
+        int got = 0;
+        try {
+            while (got < len){
+                int ret = input.read(buf, got, len - got);
+                if(ret < 0){
+                    throw new TTransportException(TTransportException.END_OF_FILE);
+                }
+                got += ret;
+            }
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+        if(writeBuffer.remaining() < len){
+            ByteBuffer grown = newWriteBuffer(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + len));
+            writeBuffer.flip();
+            grown.clear();
+            grown.put(writeBuffer);
+            writeBuffer = grown;
+        }
+        writeBuffer.put(buf, off, len);
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        if(channel == null){
+            throw new TTransportException(TTransportException.NOT_OPEN, "Cannot flush null outputStream");
+        }
+        ByteBuffer frame = writeBuffer;
+        frame.putInt(0, frame.position() - 4);
+        frame.flip();
+        try {
+            while (frame.hasRemaining()){
+                bytesSent += channel.write(frame);
+            }
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        } finally {
+            if(frame.capacity() > MAX_RETAINED_SIZE){
+                writeBuffer = newWriteBuffer(DEFAULT_BUFFER_SIZE);
+            }else{
+                frame.clear();
+                frame.position(4);
+            }
+        }
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return readBuffer;
+    }
+
+    @Override
+    public int getBufferPosition() {
+        return readPosition;
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+        return readLimit - readPosition;
+    }
+
+    @Override
+    public void consumeBuffer(int len) {
+        readPosition += len;
+    }
+
+    /**
+     * The protocols return binary fields as a view of the transport buffer when they can,
+     * the view must be copied since the buffer is recycled by the next frame
+     * @param protocol reading from a PooledFramedTransport
+     * @return
+     */
+    public static TProtocol detached(TProtocol protocol){
+        return new TProtocolDecorator(protocol) {
+            @Override
+            public ByteBuffer readBinary() throws TException {
+                ByteBuffer binary = super.readBinary();
+                if(binary.hasArray() && binary.array() == getTransport().getBuffer()){
+                    ByteBuffer copy = ByteBuffer.allocate(binary.remaining());
+                    copy.put(binary).flip();
+                    return copy;
+                }
+                return binary;
+            }
+        };
+    }
+}
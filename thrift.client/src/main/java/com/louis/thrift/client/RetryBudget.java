@@ -0,0 +1,95 @@
+package com.louis.thrift.client;
+
+import com.louis.thrift.client.props.ThriftClientProperties;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Retries a service may make: each call earns a share of one, and some are earned each second,
+ * so that while a server is down the retries add a bounded share to the load instead of doubling it.
+ * Kept in thousandths of a retry, every call goes through it
+ */
+class RetryBudget {
+
+    private static final long RETRY = 1000;
+
+    private final long earnedByCall;
+
+    private final double earnedByNano;
+
+    private final long max;
+
+    private final AtomicLong balance;
+
+    private final AtomicLong refilledAt = new AtomicLong(System.nanoTime());
+
+    RetryBudget(ThriftClientProperties.Retry retry) {
+        this.earnedByCall = (long) (retry.getBudgetRatio() * RETRY);
+        this.earnedByNano = retry.getBudgetPerSecond() * RETRY / TimeUnit.SECONDS.toNanos(1);
+        this.max = Math.max(1, retry.getBudgetMax()) * RETRY;
+        this.balance = new AtomicLong(max);
+    }
+
+    /**
+     * a call was made
+     */
+    void deposit(){
+        add(earnedByCall);
+    }
+
+    /**
+     * spend a retry
+     * @param now
+     * @return false if there is none left
+     */
+    boolean tryWithdraw(long now){
+        refill(now);
+        long current;
+        do {
+            current = balance.get();
+            if(current < RETRY){
+                return false;
+            }
+        }while (!balance.compareAndSet(current, current - RETRY));
+        return true;
+    }
+
+    private void refill(long now){
+        long at = refilledAt.get();
+        long earned = (long) ((now - at) * earnedByNano);
+        //the thread moving the clock adds what was earned meanwhile
+        if(earned > 0 && refilledAt.compareAndSet(at, now)){
+            add(earned);
+        }
+    }
+
+    private void add(long amount){
+        long current;
+        do {
+            current = balance.get();
+            if(amount <= 0 || current >= max){
+                return;
+            }
+        }while (!balance.compareAndSet(current, Math.min(max, current + amount)));
+    }
+}
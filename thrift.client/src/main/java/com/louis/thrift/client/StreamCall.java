@@ -0,0 +1,317 @@
+package com.louis.thrift.client;
+
+import com.louis.thrift.stream.StreamFrame;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * A stream of a method on one provider, for the payloads too large for a single frame, like
+ *
+ * try (StreamCall call = bella.stream(name, "export")) {
+ *     try (OutputStream out = call.getOutputStream()) { ...the request, if any }
+ *     InputStream in = call.getInputStream(); ...the response
+ * }
+ *
+ * Every chunk is a call on a pooled connection to the provider, so the stream holds a chunk at a time
+ * and no connection in between. The request is sent whole before the response is read, the provider
+ * holds a few chunks each way. When it is slower a call waits a little there for room or for a chunk,
+ * a call answered without one polls the provider again after a short pause
+ */
+public class StreamCall implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(StreamCall.class);
+
+    /**
+     * longest pause before polling again a provider which answered without room or without a chunk
+     */
+    private static final long MAX_POLL_PAUSE_MILLIS = 20;
+
+    private final ClientProxyFactory factory;
+
+    private final String service;
+
+    private final String method;
+
+    private final Request out;
+
+    private final Response in = new Response();
+
+    private InetSocketAddress endpoint;
+
+    private long id;
+
+    private int seqid;
+
+    /**
+     * the last chunk of the response came, or the stream failed
+     */
+    private boolean over;
+
+    StreamCall(ClientProxyFactory factory, String service, String method, int chunkSize) {
+        this.factory = factory;
+        this.service = service;
+        this.method = method;
+        this.out = new Request(chunkSize);
+    }
+
+    StreamCall open() throws TException {
+        id = exchange(StreamFrame.OPEN, new StreamFrame().service(service).method(method)).getId();
+        return this;
+    }
+
+    /**
+     * the request, closing it ends the request
+     * @return
+     */
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * the response, the request ends first if it is still open
+     * @return
+     */
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * @return the provider of the stream
+     */
+    public InetSocketAddress getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * one call of the stream on a pooled connection to its provider
+     * @param name
+     * @param request
+     * @return
+     * @throws TException
+     */
+    private StreamFrame exchange(String name, StreamFrame request) throws TException {
+        ConnectionPool.Entry<TServiceClient> entry;
+        try {
+            entry = endpoint == null ? factory.borrow(null) : factory.borrowFrom(endpoint);
+        }catch (TException e){
+            throw e;
+        }catch (Exception e){
+            throw new TException("no connection for stream " + service + ":" + method, e);
+        }
+        TServiceClient client = entry.get();
+        boolean broken = true;
+        try {
+            TProtocol protocol = factory.protocolOf(client, StreamFrame.SERVICE);
+            protocol.writeMessageBegin(new TMessage(name, TMessageType.CALL, ++seqid));
+            request.write(protocol);
+            protocol.writeMessageEnd();
+            protocol.getTransport().flush();
+            TMessage message = protocol.readMessageBegin();
+            if(message.type == TMessageType.EXCEPTION){
+                TApplicationException e = new TApplicationException();
+                e.read(protocol);
+                protocol.readMessageEnd();
+                broken = false;
+                throw e;
+            }
+            if(message.seqid != seqid){
+                throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID, name + " failed: out of sequence response");
+            }
+            StreamFrame reply = new StreamFrame();
+            reply.read(protocol);
+            protocol.readMessageEnd();
+            broken = false;
+            if(endpoint == null){
+                endpoint = factory.endpointOf(client);
+            }
+            return reply;
+        }finally {
+            factory.release(entry, broken);
+        }
+    }
+
+    /**
+     * wait before polling the provider again, from 1ms doubled on each call in a row without progress
+     * @param attempt calls in a row without progress
+     * @throws InterruptedIOException
+     */
+    private static void pollPause(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(Math.min(MAX_POLL_PAUSE_MILLIS, 1L << Math.min(attempt, 16)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("stream interrupted");
+        }
+    }
+
+    /**
+     * cancel the stream on the provider when its response wasn't read to the end
+     */
+    @Override
+    public void close() {
+        if(over || id == 0){
+            return;
+        }
+        over = true;
+        try {
+            exchange(StreamFrame.CANCEL, new StreamFrame().id(id));
+        } catch (TException e) {
+            logger.debug("cancel stream " + id + " failed : " + e.getMessage());
+        }
+    }
+
+    private class Request extends OutputStream {
+
+        private final byte[] buffer;
+
+        private int count;
+
+        private boolean closed;
+
+        Request(int chunkSize) {
+            this.buffer = new byte[Math.max(1, chunkSize)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buffer.length){
+                send(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0){
+                if(count == buffer.length){
+                    send(false);
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void send(boolean last) throws IOException {
+            if(closed){
+                throw new IOException("request of stream " + id + " is over");
+            }
+            try {
+                //refused while the window of the stream is full
+                for (int attempt = 0; exchange(StreamFrame.WRITE,
+                        new StreamFrame().id(id).data(ByteBuffer.wrap(buffer, 0, count)).last(last)).isFull(); attempt++){
+                    pollPause(attempt);
+                }
+                count = 0;
+            } catch (TException e) {
+                over = true;
+                closed = true;
+                throw new IOException("stream " + service + ":" + method + " failed : " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * send the last chunk
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            if(!closed){
+                send(true);
+                closed = true;
+            }
+        }
+    }
+
+    private class Response extends InputStream {
+
+        private ByteBuffer chunk;
+
+        private boolean last;
+
+        /**
+         * @return false at the end of the response
+         * @throws IOException
+         */
+        private boolean next() throws IOException {
+            for (int attempt = 0; chunk == null || !chunk.hasRemaining(); attempt++){
+                if(last){
+                    return false;
+                }
+                out.close();
+                if(attempt > 0){
+                    //no chunk was ready
+                    pollPause(attempt - 1);
+                }
+                try {
+                    StreamFrame reply = exchange(StreamFrame.READ, new StreamFrame().id(id));
+                    chunk = reply.getData();
+                    last = reply.isLast();
+                    over = last;
+                } catch (TException e) {
+                    over = true;
+                    throw new IOException("stream " + service + ":" + method + " failed : " + e.getMessage(), e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? chunk.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0){
+                return 0;
+            }
+            if(!next()){
+                return -1;
+            }
+            int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null ? 0 : chunk.remaining();
+        }
+    }
+}
@@ -1,21 +1,33 @@
 package com.louis.thrift.client;
 
+import com.google.common.collect.Maps;
+import com.louis.thrift.client.props.ThriftClientProperties;
+import com.louis.thrift.protocol.ProtocolType;
+import com.louis.thrift.provider.ProviderMetadata;
 import com.louis.thrift.provider.ServerExposeProvider;
-import org.apache.commons.pool2.BasePooledObjectFactory;
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
+import com.louis.thrift.shm.SharedMemoryServerTransport;
+import com.louis.thrift.shm.SharedMemoryTransport;
 import org.apache.thrift.TServiceClient;
 import org.apache.thrift.TServiceClientFactory;
-import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TMultiplexedProtocol;
 import org.apache.thrift.protocol.TProtocol;
-import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
 
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
@@ -35,7 +47,7 @@ import java.net.InetSocketAddress;
  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  THE SOFTWARE.
  ****************************************************************************/
-public class ThriftClientPoolFactory extends BasePooledObjectFactory<TServiceClient> {
+public class ThriftClientPoolFactory implements ConnectionPool.Factory<TServiceClient> {
 
     private final Logger logger = LoggerFactory.getLogger(ThriftClientPoolFactory.class);
 
@@ -45,6 +57,52 @@ public class ThriftClientPoolFactory extends BasePooledObjectFactory<TServiceCli
 
     private final PoolOperationCallBack callback;
 
+    private ThriftClientProperties.Health health = new ThriftClientProperties.Health();
+
+    /**
+     * the ping method of the health settings, resolved once on the client class
+     */
+    private volatile Method ping;
+
+    private ThriftClientProperties.Connect connect = new ThriftClientProperties.Connect();
+
+    private boolean sharedMemory = true;
+
+    /**
+     * protocol of all the connections, null for the one each provider registered
+     */
+    private ProtocolType protocol;
+
+    /**
+     * connect rate and backoff by endpoint
+     */
+    private final Map<InetSocketAddress, ConnectThrottle> throttles = Maps.newConcurrentMap();
+
+    /**
+     * the endpoint each pooled client is connected to
+     */
+    private final Map<TServiceClient, InetSocketAddress> endpoints = Maps.newConcurrentMap();
+
+    /**
+     * the protocol each pooled client speaks
+     */
+    private final Map<TServiceClient, ProtocolType> protocols = Maps.newConcurrentMap();
+
+    /**
+     * connections by endpoint
+     */
+    private final Map<InetSocketAddress, AtomicInteger> connections = Maps.newConcurrentMap();
+
+    /**
+     * the endpoint a call of the thread failed on while it is retried
+     */
+    private final ThreadLocal<InetSocketAddress> avoided = new ThreadLocal<>();
+
+    /**
+     * the only endpoint the connects of the thread go to during a broadcast
+     */
+    private final ThreadLocal<InetSocketAddress> target = new ThreadLocal<>();
+
     public ThriftClientPoolFactory(ServerExposeProvider serverExposeProvider, TServiceClientFactory<TServiceClient> clientFactory){
         this(serverExposeProvider, clientFactory, null);
     }
@@ -55,54 +113,355 @@ public class ThriftClientPoolFactory extends BasePooledObjectFactory<TServiceCli
         this.callback = callback;
     }
 
+    /**
+     * tcp keepalive of the connections and the probes of the idle ones
+     * @param health
+     * @return
+     */
+    public ThriftClientPoolFactory health(ThriftClientProperties.Health health){
+        this.health = health;
+        this.ping = null;
+        return this;
+    }
+
+    /**
+     * resolve the ping method of the health settings now rather than on the first connection
+     * @param clientClass
+     * @return
+     * @throws IllegalArgumentException if the client has no such method without arguments
+     */
+    public ThriftClientPoolFactory ping(Class<?> clientClass){
+        this.ping = health.getPingMethod() == null ? null : pingMethodOf(clientClass);
+        return this;
+    }
+
+    private Method pingMethodOf(Class<?> clientClass){
+        try {
+            return clientClass.getMethod(health.getPingMethod());
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("ping method " + health.getPingMethod() + " without arguments not found in " + clientClass.getName());
+        }
+    }
+
+    /**
+     * @param sharedMemory whether the providers on this host are connected through their shared memory
+     * @return
+     */
+    public ThriftClientPoolFactory sharedMemory(boolean sharedMemory){
+        this.sharedMemory = sharedMemory;
+        return this;
+    }
+
+    /**
+     * @param protocol of all the connections, null to use the one each provider registered
+     * @return
+     */
+    public ThriftClientPoolFactory protocol(ProtocolType protocol){
+        this.protocol = protocol;
+        return this;
+    }
+
+    /**
+     * rate, backoff and timeout of the connects
+     * @param connect
+     * @return
+     */
+    public ThriftClientPoolFactory connect(ThriftClientProperties.Connect connect){
+        this.connect = connect;
+        throttles.clear();
+        return this;
+    }
+
     @Override
     public TServiceClient create() throws Exception {
-        InetSocketAddress address = serverExposeProvider.select();
-        if(address == null){
-            throw new Exception("No provider available");
-        }
-        TSocket tsocket = new TSocket(address.getHostName(), address.getPort());
-        TTransport transport = new TFramedTransport(tsocket);
-        TProtocol protocol = new TMultiplexedProtocol(new TCompactProtocol(transport), serverExposeProvider.getService());
-        TServiceClient client = this.clientFactory.getClient(protocol);
-        transport.open();
+        InetSocketAddress address = acquire();
+        TTransport transport = transport(address);
+        ProtocolType type = protocolOf(address);
+        TServiceClient client = this.clientFactory.getClient(protocol(type, transport, serverExposeProvider.getService()));
+        if(health.getPingMethod() != null && ping == null){
+            ping = pingMethodOf(client.getClass());
+        }
+        try {
+            transport.open();
+        }catch (TTransportException e){
+            long backoff = throttle(address).failed(System.nanoTime());
+            logger.warn("connect " + address + " failed, retry in " + TimeUnit.NANOSECONDS.toMillis(backoff) + "ms : " + e.getMessage());
+            throw e;
+        }
+        throttle(address).succeeded();
+        endpoints.put(client, address);
+        protocols.put(client, type);
+        connections.computeIfAbsent(address, key -> new AtomicInteger()).incrementAndGet();
         if(callback != null){
             callback.create(client);
         }
         return client;
     }
 
+    /**
+     * the protocol configured, else the one the provider prefers, compact for the providers which don't tell.
+     * The providers detect the protocol of each connection, the ones registering none speak the configured one only
+     * @param address
+     * @return
+     */
+    private ProtocolType protocolOf(InetSocketAddress address){
+        if(protocol != null){
+            return protocol;
+        }
+        ProtocolType preferred = ProtocolType.of(serverExposeProvider.metadataOf(address).get(ProviderMetadata.PROTOCOL));
+        return preferred != null ? preferred : ProtocolType.COMPACT;
+    }
+
+    /**
+     * the protocol of a connection, for the service
+     * @param type
+     * @param transport
+     * @param service
+     * @return
+     */
+    private static TProtocol protocol(ProtocolType type, TTransport transport, String service){
+        return new TMultiplexedProtocol(PooledFramedTransport.detached(type.factory().getProtocol(transport)), service);
+    }
+
+    /**
+     * the protocol of another service on the connection of the client, like the one of the streams
+     * @param client
+     * @param service
+     * @return
+     */
+    TProtocol protocolOf(TServiceClient client, String service){
+        return protocol(protocols.getOrDefault(client, ProtocolType.COMPACT), client.getOutputProtocol().getTransport(), service);
+    }
+
+    /**
+     * the shared memory of the provider when it offers it and is on this host, else its port
+     * @param address
+     * @return
+     */
+    private TTransport transport(InetSocketAddress address){
+        if(sharedMemory){
+            Map<String, String> metadata = serverExposeProvider.metadataOf(address);
+            String directory = metadata.get(ProviderMetadata.SHM_DIRECTORY);
+            String id = metadata.get(ProviderMetadata.SHM_ID);
+            if(directory != null && id != null && SharedMemoryServerTransport.reachable(new File(directory), id)){
+                return new SharedMemoryTransport(new File(directory), Integer.parseInt(metadata.getOrDefault(ProviderMetadata.SHM_RING_SIZE, "1048576")))
+                        .connectTimeout(connect.getTimeout());
+            }
+        }
+        return new PooledFramedTransport(address)
+                .connectTimeout(connect.getTimeout())
+                .keepAlive(health.getKeepAliveIdle(), health.getKeepAliveInterval(), health.getKeepAliveCount());
+    }
+
+    /**
+     * an endpoint a connect may start to, waiting for one under its rate within the connect timeout
+     * @return
+     * @throws TTransportException if there is none, or all of them back off
+     */
+    private InetSocketAddress acquire() throws TTransportException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connect.getTimeout());
+        while (true){
+            long now = System.nanoTime();
+            InetSocketAddress address = select(now);
+            if(address != null){
+                if(throttle(address).tryAcquire(now)){
+                    return address;
+                }
+                //taken by another thread in between
+                continue;
+            }
+            InetSocketAddress target = this.target.get();
+            List<InetSocketAddress> addresses = target == null ? serverExposeProvider.getServerAddressList()
+                    : serverExposeProvider.contains(target) ? Collections.singletonList(target) : Collections.emptyList();
+            if(addresses.isEmpty()){
+                throw new TTransportException(TTransportException.NOT_OPEN, "No provider available");
+            }
+            long wait = Long.MAX_VALUE;
+            for (InetSocketAddress candidate : addresses){
+                wait = Math.min(wait, throttle(candidate).availableIn(now));
+            }
+            if(now + wait - deadline > 0){
+                throw new TTransportException(TTransportException.NOT_OPEN, "No provider available, the " + addresses.size() + " providers back off or are under their connect rate");
+            }
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    /**
+     * the less connected of two endpoints selected by the provider among the ones a connect may start to,
+     * so that a server started lately gets the new connections until it has its share.
+     * A retry goes to another endpoint than the one it failed on, unless it is the only one available
+     * @param now
+     * @return null if none is available
+     */
+    private InetSocketAddress select(long now){
+        Predicate<InetSocketAddress> available = address -> throttle(address).availableIn(now) == 0;
+        InetSocketAddress target = this.target.get();
+        if(target != null){
+            return serverExposeProvider.contains(target) && available.test(target) ? target : null;
+        }
+        InetSocketAddress avoided = this.avoided.get();
+        if(avoided != null){
+            InetSocketAddress other = select(available.and(address -> !address.equals(avoided)));
+            if(other != null){
+                return other;
+            }
+        }
+        return select(available);
+    }
+
+    private InetSocketAddress select(Predicate<InetSocketAddress> available){
+        InetSocketAddress first = serverExposeProvider.select(available);
+        InetSocketAddress second = serverExposeProvider.select(available);
+        if(first == null || second == null){
+            return first != null ? first : second;
+        }
+        return connectionsTo(second) < connectionsTo(first) ? second : first;
+    }
+
+    private ConnectThrottle throttle(InetSocketAddress address){
+        ConnectThrottle throttle = throttles.get(address);
+        return throttle != null ? throttle : throttles.computeIfAbsent(address, key -> new ConnectThrottle(connect));
+    }
+
+    /**
+     * run the borrow of a retry, the connects it starts go to another endpoint than the one failed when there is one
+     * @param failed
+     * @param borrow
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    <T> T avoiding(InetSocketAddress failed, Callable<T> borrow) throws Exception {
+        avoided.set(failed);
+        try {
+            return borrow.call();
+        }finally {
+            avoided.remove();
+        }
+    }
+
+    /**
+     * run a borrow of a broadcast, the connects it starts go to the endpoint only
+     * @param endpoint
+     * @param borrow
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    <T> T towards(InetSocketAddress endpoint, Callable<T> borrow) throws Exception {
+        target.set(endpoint);
+        try {
+            return borrow.call();
+        }finally {
+            target.remove();
+        }
+    }
+
+    /**
+     * @param address
+     * @return connections of the pool to the endpoint
+     */
+    public int connectionsTo(InetSocketAddress address){
+        AtomicInteger count = connections.get(address);
+        return count == null ? 0 : count.get();
+    }
+
     /**
      * close transport
-     * @param p
+     * @param client
      * @throws Exception
      */
     @Override
-    public void destroyObject(PooledObject<TServiceClient> p) throws Exception {
-        TServiceClient client = p.getObject();
+    public void destroy(TServiceClient client) throws Exception {
         if(callback != null){
             callback.destory(client);
         }
-        logger.info("destroyObject:{}", client);
+        InetSocketAddress address = endpoints.remove(client);
+        protocols.remove(client);
+        if(address != null){
+            connections.get(address).decrementAndGet();
+        }
+        logger.debug("destroyObject:{} connected to {}", client, address);
         TTransport pin = client.getInputProtocol().getTransport();
         pin.close();
         TTransport pout = client.getOutputProtocol().getTransport();
         pout.close();
     }
 
+    /**
+     * probe of an idle connection: open, connected to a server still exposed, not closed or reset
+     * by the server, and answering the ping method when there is one
+     * @param client
+     * @return
+     */
     @Override
-    public boolean validateObject(PooledObject<TServiceClient> p) {
-        TServiceClient client = p.getObject();
+    public boolean validate(TServiceClient client) {
         TTransport pin = client.getInputProtocol().getTransport();
-        logger.info("validateObject input:{}", pin.isOpen());
         TTransport pout = client.getOutputProtocol().getTransport();
-        logger.info("validateObject output:{}", pout.isOpen());
-        return pin.isOpen() && pout.isOpen();
+        InetSocketAddress address = endpoints.get(client);
+        if(!pin.isOpen() || !pout.isOpen() || (address != null && !serverExposeProvider.contains(address))){
+            return false;
+        }
+        if(pin instanceof PooledFramedTransport && !((PooledFramedTransport) pin).isAlive()){
+            return false;
+        }
+        return health.getPingMethod() == null || ping(client);
     }
 
-    @Override
-    public PooledObject<TServiceClient> wrap(TServiceClient tServiceClient) {
-        return new DefaultPooledObject<>(tServiceClient);
+    private boolean ping(TServiceClient client){
+        TTransport transport = client.getInputProtocol().getTransport();
+        timeout(transport, health.getPingTimeout());
+        Method method = ping;
+        if(method == null){
+            method = ping = pingMethodOf(client.getClass());
+        }
+        try {
+            method.invoke(client);
+            return true;
+        } catch (InvocationTargetException e) {
+            logger.debug("ping " + endpoints.get(client) + " failed : " + e.getCause());
+            return false;
+        } catch (IllegalAccessException e) {
+            //public, resolved with getMethod
+            throw new IllegalStateException(e);
+        } finally {
+            resetTimeout(transport);
+        }
+    }
+
+    /**
+     * set the timeout of the reads of a connection, the socket or the shared memory
+     * @param transport
+     * @param timeout millis, 0 for none
+     */
+    static void timeout(TTransport transport, int timeout){
+        if(transport instanceof PooledFramedTransport){
+            ((PooledFramedTransport) transport).setTimeout(timeout);
+        }else if(transport instanceof SharedMemoryTransport){
+            ((SharedMemoryTransport) transport).setTimeout(timeout);
+        }
+    }
+
+    /**
+     * back to the timeout the connection was created with
+     * @param transport
+     */
+    static void resetTimeout(TTransport transport){
+        if(transport instanceof PooledFramedTransport){
+            ((PooledFramedTransport) transport).setTimeout(((PooledFramedTransport) transport).getTimeout());
+        }else if(transport instanceof SharedMemoryTransport){
+            ((SharedMemoryTransport) transport).setTimeout(((SharedMemoryTransport) transport).getTimeout());
+        }
+    }
+
+    /**
+     * the endpoint the client is connected to
+     * @param client
+     * @return null if the client is not pooled
+     */
+    public InetSocketAddress endpointOf(TServiceClient client){
+        return endpoints.get(client);
     }
 
 
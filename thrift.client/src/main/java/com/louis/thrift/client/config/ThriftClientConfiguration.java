@@ -8,6 +8,7 @@ import com.louis.thrift.register.ZkRegistry;
 import com.louis.thrift.zk.CuratorFactory;
 import com.louis.thrift.zk.DefaultCuratorFactory;
 import com.louis.thrift.zk.ZkProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -43,6 +44,9 @@ public class ThriftClientConfiguration {
 
     @Autowired(required = false)
     private String[] services;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
     //
     @ConditionalOnMissingBean
     @ConditionalOnClass(CuratorFactory.class)
@@ -62,7 +66,8 @@ public class ThriftClientConfiguration {
                     .service(service);
             zkServerExposeProvider.buildPathChildrenCache();
             try {
-                map.put(service, ClientProxyFactory.create(thriftClientProperties).serverExposeProvider(zkServerExposeProvider).configure());
+                map.put(service, ClientProxyFactory.create(thriftClientProperties).serverExposeProvider(zkServerExposeProvider)
+                        .meterRegistry(meterRegistry).configure());
             } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
                 e.printStackTrace();
             }
@@ -1,7 +1,11 @@
 package com.louis.thrift.client.props;
 
+import com.louis.thrift.concurrent.WorkerMode;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
  Permission is hereby granted, free of charge, to any person obtaining a copy
@@ -41,6 +45,60 @@ public class ThriftClientProperties {
 
     private int idleTime = 180000;
 
+    /**
+     * Max millis a borrow waits for a connection once maxActive are in use.
+     * Use a negative value to wait as long as it takes.
+     */
+    private long maxWait = -1;
+
+    /**
+     * Max millis a connection is used, up to a tenth less for each one, so that the traffic
+     * moves to the servers started since. Use 0 to keep the connections as long as they work.
+     */
+    private long maxLifetime = 1800000;
+
+    /**
+     * threads running the blocking calls submitted through Bella#submit
+     * PLATFORM - a pool of maxActive threads
+     * VIRTUAL - one virtual thread per call on java 21+
+     */
+    private WorkerMode workerMode = WorkerMode.PLATFORM;
+
+    /**
+     * probing of the idle connections, broken ones are closed before they are borrowed
+     */
+    private Health health = new Health();
+
+    /**
+     * throttling of the connects to each server
+     */
+    private Connect connect = new Connect();
+
+    /**
+     * retries of the calls failed on their connection
+     */
+    private Retry retry = new Retry();
+
+    /**
+     * calls of the services served in the same jvm
+     */
+    private Local local = new Local();
+
+    /**
+     * connect through the shared memory of a provider on the same host when it offers it, rather than its port
+     */
+    private boolean sharedMemory = true;
+
+    /**
+     * bytes of a chunk of the request of a stream, below the max frame size of the server
+     */
+    private int streamChunkSize = 64 * 1024;
+
+    /**
+     * compact, binary or json for all the connections, empty to speak the one each provider registered
+     */
+    private String protocol = "";
+
     public int getMaxActive() {
         return maxActive;
     }
@@ -72,4 +130,313 @@ public class ThriftClientProperties {
     public void setIdleTime(int idleTime) {
         this.idleTime = idleTime;
     }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public WorkerMode getWorkerMode() {
+        return workerMode;
+    }
+
+    public void setWorkerMode(WorkerMode workerMode) {
+        this.workerMode = workerMode;
+    }
+
+    public Health getHealth() {
+        return health;
+    }
+
+    public void setHealth(Health health) {
+        this.health = health;
+    }
+
+    public Connect getConnect() {
+        return connect;
+    }
+
+    public void setConnect(Connect connect) {
+        this.connect = connect;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public void setRetry(Retry retry) {
+        this.retry = retry;
+    }
+
+    public boolean isSharedMemory() {
+        return sharedMemory;
+    }
+
+    public void setSharedMemory(boolean sharedMemory) {
+        this.sharedMemory = sharedMemory;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+
+    public void setStreamChunkSize(int streamChunkSize) {
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    public Local getLocal() {
+        return local;
+    }
+
+    public void setLocal(Local local) {
+        this.local = local;
+    }
+
+    public static class Connect {
+        /**
+         * millis a connect may take, including the wait for a server under its rate
+         */
+        private int timeout = 3000;
+        /**
+         * connects per second to a server, 0 for no limit
+         */
+        private double rate = 50;
+        /**
+         * connects to a server started at once before the rate applies
+         */
+        private int burst = 10;
+        /**
+         * millis a server is left alone after a failed connect, doubled on each failure in a row
+         */
+        private long backoffBase = 100;
+
+        private long backoffMax = 10000;
+
+        public int getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public void setRate(double rate) {
+            this.rate = rate;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+
+        public long getBackoffBase() {
+            return backoffBase;
+        }
+
+        public void setBackoffBase(long backoffBase) {
+            this.backoffBase = backoffBase;
+        }
+
+        public long getBackoffMax() {
+            return backoffMax;
+        }
+
+        public void setBackoffMax(long backoffMax) {
+            this.backoffMax = backoffMax;
+        }
+    }
+
+    public static class Health {
+        /**
+         * millis between two probes of the idle connections, 0 to disable. A probe pass lasts at most
+         * as long, the connections it didn't reach are probed by the next one
+         */
+        private long interval = 5000;
+        /**
+         * a method of the service without arguments, called on the idle connections when set.
+         * The client fails to configure when the service has no such method
+         */
+        private String pingMethod;
+        /**
+         * millis the ping may take
+         */
+        private int pingTimeout = 1000;
+        /**
+         * seconds of tcp keepalive: idle before the first probe, between the probes, probes lost
+         * before the connection is reset. Applied where the jdk supports them, 0 keeps the os default
+         */
+        private int keepAliveIdle = 60;
+
+        private int keepAliveInterval = 10;
+
+        private int keepAliveCount = 3;
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        public String getPingMethod() {
+            return pingMethod;
+        }
+
+        public void setPingMethod(String pingMethod) {
+            this.pingMethod = pingMethod;
+        }
+
+        public int getPingTimeout() {
+            return pingTimeout;
+        }
+
+        public void setPingTimeout(int pingTimeout) {
+            this.pingTimeout = pingTimeout;
+        }
+
+        public int getKeepAliveIdle() {
+            return keepAliveIdle;
+        }
+
+        public void setKeepAliveIdle(int keepAliveIdle) {
+            this.keepAliveIdle = keepAliveIdle;
+        }
+
+        public int getKeepAliveInterval() {
+            return keepAliveInterval;
+        }
+
+        public void setKeepAliveInterval(int keepAliveInterval) {
+            this.keepAliveInterval = keepAliveInterval;
+        }
+
+        public int getKeepAliveCount() {
+            return keepAliveCount;
+        }
+
+        public void setKeepAliveCount(int keepAliveCount) {
+            this.keepAliveCount = keepAliveCount;
+        }
+    }
+
+    public static class Retry {
+        /**
+         * attempts of a call, the first one included, 1 for no retry. A call is retried on another
+         * server when its connection failed before the request was sent, or when its method is idempotent
+         */
+        private int maxAttempts = 2;
+        /**
+         * idempotent methods, like ${serviceName}:${methodName}, or ${serviceName}:* for all the methods of a service
+         */
+        private List<String> methods = new ArrayList<>();
+        /**
+         * retries of a service earned by each call, so that they are a bounded share of the calls during an outage
+         */
+        private double budgetRatio = 0.1;
+        /**
+         * retries of a service earned each second whatever the calls
+         */
+        private double budgetPerSecond = 10;
+        /**
+         * retries of a service which may be made in a row
+         */
+        private int budgetMax = 100;
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public List<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(List<String> methods) {
+            this.methods = methods;
+        }
+
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        public double getBudgetPerSecond() {
+            return budgetPerSecond;
+        }
+
+        public void setBudgetPerSecond(double budgetPerSecond) {
+            this.budgetPerSecond = budgetPerSecond;
+        }
+
+        public int getBudgetMax() {
+            return budgetMax;
+        }
+
+        public void setBudgetMax(int budgetMax) {
+            this.budgetMax = budgetMax;
+        }
+    }
+
+    public static class Local {
+        /**
+         * call the handler of a service served in the same jvm, rather than a server through a socket.
+         * The undeclared exceptions and the missing results are answered as the server would,
+         * but the bulkheads, the metrics and the response cache of the server are skipped
+         */
+        private boolean enabled = false;
+        /**
+         * copy the arguments and the results of the local calls, so that neither side sees the changes
+         * of the other one to them, as if they went through a socket
+         */
+        private boolean copy = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isCopy() {
+            return copy;
+        }
+
+        public void setCopy(boolean copy) {
+            this.copy = copy;
+        }
+    }
 }
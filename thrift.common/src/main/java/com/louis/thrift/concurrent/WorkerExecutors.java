@@ -0,0 +1,102 @@
+package com.louis.thrift.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Executors of the worker threads.
+ * The project is compiled for Java 8, virtual threads are looked up by reflection
+ */
+public final class WorkerExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerExecutors.class);
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private WorkerExecutors(){
+
+    }
+
+    private static Method method(Class<?> clazz, String name, Class<?>... parameterTypes){
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * whether the running JDK has virtual threads
+     * @return
+     */
+    public static boolean isVirtualThreadSupported(){
+        return OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * start a virtual thread for each task
+     * @param prefix name prefix of the threads
+     * @return null if virtual threads are not supported
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String prefix){
+        if(!isVirtualThreadSupported()){
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("failed to create virtual thread executor : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * the executor of the given mode
+     * @param mode
+     * @param prefix name prefix of the threads
+     * @param platform used for PLATFORM, or when virtual threads are not supported
+     * @return
+     */
+    public static ExecutorService newExecutor(WorkerMode mode, String prefix, Supplier<ExecutorService> platform){
+        if(mode == WorkerMode.VIRTUAL){
+            ExecutorService executor = newVirtualThreadPerTaskExecutor(prefix);
+            if(executor != null){
+                return executor;
+            }
+            logger.warn("virtual threads are not supported by java " + System.getProperty("java.version")
+                    + ", use platform threads instead");
+        }
+        return platform.get();
+    }
+}
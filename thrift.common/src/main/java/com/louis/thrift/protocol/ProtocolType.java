@@ -0,0 +1,94 @@
+package com.louis.thrift.protocol;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * The protocols a server understands, in the order of the protocol index of its properties,
+ * with the first byte of their messages
+ */
+public enum ProtocolType {
+    /**
+     * the protocol id, 0x82
+     */
+    COMPACT(new TCompactProtocol.Factory(), (byte) 0x82),
+    /**
+     * the high byte of the strict version, 0x80
+     */
+    BINARY(new TBinaryProtocol.Factory(), (byte) 0x80),
+    /**
+     * the array holding the message
+     */
+    JSON(new TJSONProtocol.Factory(), (byte) '[');
+
+    private final TProtocolFactory factory;
+
+    private final byte first;
+
+    ProtocolType(TProtocolFactory factory, byte first) {
+        this.factory = factory;
+        this.first = first;
+    }
+
+    public TProtocolFactory factory() {
+        return factory;
+    }
+
+    /**
+     * @param first first byte of a message
+     * @return null if no protocol starts with it
+     */
+    public static ProtocolType detect(byte first){
+        for (ProtocolType type : values()){
+            if(type.first == first){
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name like compact, case does not matter
+     * @return null for a null, empty or unknown name
+     */
+    public static ProtocolType of(String name){
+        if(name == null){
+            return null;
+        }
+        for (ProtocolType type : values()){
+            if(type.name().equalsIgnoreCase(name.trim())){
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param index protocol index of the server properties
+     * @return COMPACT for an unknown index
+     */
+    public static ProtocolType of(int index){
+        return index >= 0 && index < values().length ? values()[index] : COMPACT;
+    }
+}
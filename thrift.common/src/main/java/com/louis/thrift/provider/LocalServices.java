@@ -0,0 +1,61 @@
+package com.louis.thrift.provider;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Handlers of the services served in this jvm, keyed by service name, so that a client of
+ * one of them calls the handler rather than going through a socket to itself
+ */
+public final class LocalServices {
+
+    private static final Map<String, Object> HANDLERS = Maps.newConcurrentMap();
+
+    private LocalServices(){
+
+    }
+
+    /**
+     * @param service
+     * @param handler implementing ${serviceName}$Iface
+     */
+    public static void register(String service, Object handler){
+        HANDLERS.put(service, handler);
+    }
+
+    /**
+     * @param service
+     * @param handler the one registered, left alone if another server replaced it
+     */
+    public static void unregister(String service, Object handler){
+        HANDLERS.remove(service, handler);
+    }
+
+    /**
+     * @param service
+     * @return null if the service isn't served in this jvm
+     */
+    public static Object handlerOf(String service){
+        return HANDLERS.get(service);
+    }
+}
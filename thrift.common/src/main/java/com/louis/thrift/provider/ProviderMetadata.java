@@ -0,0 +1,88 @@
+package com.louis.thrift.provider;
+
+import com.google.common.base.Splitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Data of the node of a provider: name=value lines, like registered=${millis}.
+ * The nodes registered before it hold the millis alone, they are read as registered
+ */
+public final class ProviderMetadata {
+
+    public static final String REGISTERED = "registered";
+
+    /**
+     * directory of the shared memory transport, when the provider offers it
+     */
+    public static final String SHM_DIRECTORY = "shm.directory";
+
+    /**
+     * identity of the shared memory transport, found in its directory only on the host of the provider
+     */
+    public static final String SHM_ID = "shm.id";
+
+    /**
+     * capacity in bytes of each ring of a shared memory connection
+     */
+    public static final String SHM_RING_SIZE = "shm.ringSize";
+
+    /**
+     * protocol the provider prefers, like compact, it detects the protocol of each connection
+     */
+    public static final String PROTOCOL = "protocol";
+
+    private ProviderMetadata(){
+
+    }
+
+    public static byte[] encode(Map<String, String> metadata){
+        StringBuilder builder = new StringBuilder();
+        metadata.forEach((name, value) -> builder.append(name).append('=').append(value).append('\n'));
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param data null for none
+     * @return
+     */
+    public static Map<String, String> parse(byte[] data){
+        if(data == null || data.length == 0){
+            return Collections.emptyMap();
+        }
+        String text = new String(data, StandardCharsets.UTF_8).trim();
+        if(text.indexOf('=') < 0){
+            return Collections.singletonMap(REGISTERED, text);
+        }
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (String line : Splitter.on('\n').omitEmptyStrings().trimResults().split(text)){
+            int separator = line.indexOf('=');
+            if(separator > 0){
+                metadata.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        return metadata;
+    }
+}
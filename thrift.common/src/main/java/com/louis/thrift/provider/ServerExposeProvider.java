@@ -2,7 +2,13 @@ package com.louis.thrift.provider;
 
 import java.io.Closeable;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
@@ -41,4 +47,46 @@ public interface ServerExposeProvider extends Closeable {
      * @return
      */
     InetSocketAddress select();
+
+    /**
+     * select one among the available ones, at random
+     * @param available
+     * @return null if none is available
+     */
+    default InetSocketAddress select(Predicate<InetSocketAddress> available){
+        List<InetSocketAddress> candidates = getServerAddressList().stream().filter(available).collect(Collectors.toList());
+        return candidates.isEmpty() ? null : candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    }
+
+    /**
+     * whether the address is still exposed, the connections to a server which left are closed
+     * @param address
+     * @return
+     */
+    default boolean contains(InetSocketAddress address){
+        return getServerAddressList().contains(address);
+    }
+
+    /**
+     * what the provider registered along with its address
+     * @param address
+     * @return empty if unknown
+     */
+    default Map<String, String> metadataOf(InetSocketAddress address){
+        return Collections.emptyMap();
+    }
+
+    /**
+     * notified with the addresses which joined, a provider with a fixed list never notifies
+     * @param listener
+     */
+    default void addAdditionListener(Consumer<InetSocketAddress> listener){
+    }
+
+    /**
+     * notified with the addresses which left, a provider with a fixed list never notifies
+     * @param listener
+     */
+    default void addRemovalListener(Consumer<InetSocketAddress> listener){
+    }
 }
@@ -3,6 +3,8 @@ package com.louis.thrift.provider;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.louis.thrift.RpcConstants;
 import com.louis.thrift.register.MonitorListener;
 import com.louis.thrift.register.Registry;
@@ -16,6 +18,8 @@ import org.springframework.util.Assert;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 
@@ -45,10 +49,16 @@ public class ZkServerExposeProvider implements ServerExposeProvider {
 
     private String service;
 
-    private Set<InetSocketAddress> addresses = new HashSet<>();
+    private Set<InetSocketAddress> addresses = Sets.newConcurrentHashSet();
+
+    private final Map<InetSocketAddress, Map<String, String>> metadata = Maps.newConcurrentMap();
 
     private volatile MonitorListener listener;
 
+    private final List<Consumer<InetSocketAddress>> additionListeners = new CopyOnWriteArrayList<>();
+
+    private final List<Consumer<InetSocketAddress>> removalListeners = new CopyOnWriteArrayList<>();
+
     private ZkServerExposeProvider(Registry registry){
         this.registry = registry;
         listener = event -> {
@@ -56,14 +66,21 @@ public class ZkServerExposeProvider implements ServerExposeProvider {
             switch (event.getType()){
                 case CHILD_ADDED:
                 case CHILD_UPDATED:
-                    addresses.add(getAddress(data.getKey()));
+                    InetSocketAddress added = getAddress(data.getKey());
+                    metadata.put(added, ProviderMetadata.parse(data.getValue()));
+                    if(addresses.add(added)){
+                        additionListeners.forEach(additionListener -> additionListener.accept(added));
+                    }
                     break;
                 case CHILD_REMOVED:
-                    addresses.removeIf(it -> {
-                        InetSocketAddress inetSocketAddress = getAddress(data.getKey());
-                        return inetSocketAddress.getHostName().equals(it.getHostName())
-                                && inetSocketAddress.getPort() == it.getPort();
-                    });
+                    InetSocketAddress removed = getAddress(data.getKey());
+                    for (InetSocketAddress it : addresses){
+                        if(removed.getHostName().equals(it.getHostName()) && removed.getPort() == it.getPort()
+                                && addresses.remove(it)){
+                            metadata.remove(it);
+                            removalListeners.forEach(removalListener -> removalListener.accept(it));
+                        }
+                    }
                     break;
                 default:
                     break;
@@ -106,32 +123,34 @@ public class ZkServerExposeProvider implements ServerExposeProvider {
     }
 
     @Override
-    public InetSocketAddress select() {
-        RandomPolicy randomPolicy = new RandomPolicy();
-        return randomPolicy.get();
+    public boolean contains(InetSocketAddress address) {
+        return addresses.contains(address);
     }
 
     @Override
-    public void close() throws IOException {
-        this.registry.unSubscribe(String.format("/%s/%s", RpcConstants.ROOT, service), listener);
-        this.registry.shutdown();
+    public Map<String, String> metadataOf(InetSocketAddress address) {
+        Map<String, String> metadata = this.metadata.get(address);
+        return metadata != null ? metadata : Collections.emptyMap();
     }
 
-    /**
-     * random load balance
-     */
-    private class RandomPolicy{
+    @Override
+    public void addAdditionListener(Consumer<InetSocketAddress> listener) {
+        additionListeners.add(listener);
+    }
 
-        private List<InetSocketAddress> list = new ArrayList<>();
+    @Override
+    public void addRemovalListener(Consumer<InetSocketAddress> listener) {
+        removalListeners.add(listener);
+    }
 
-        public RandomPolicy(){
-            list.addAll(addresses);
-        }
+    @Override
+    public InetSocketAddress select() {
+        return select(address -> true);
+    }
 
-        public InetSocketAddress get(){
-            Random random = new Random();
-            int pos = random.nextInt(list.size());
-            return list.get(pos);
-        }
+    @Override
+    public void close() throws IOException {
+        this.registry.unSubscribe(String.format("/%s/%s", RpcConstants.ROOT, service), listener);
+        this.registry.shutdown();
     }
 }
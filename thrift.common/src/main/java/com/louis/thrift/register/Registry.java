@@ -22,6 +22,8 @@ package com.louis.thrift.register;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Registry and subscribe service
@@ -41,6 +43,22 @@ public interface Registry {
      */
     void unregister(String path);
 
+    /**
+     * register the nodes together, and again once a lost session is replaced
+     * @param nodes data keyed by path
+     */
+    default void registerAll(Map<String, byte[]> nodes){
+        nodes.forEach(this::register);
+    }
+
+    /**
+     * unregister the nodes together
+     * @param paths
+     */
+    default void unregisterAll(Collection<String> paths){
+        paths.forEach(this::unregister);
+    }
+
     /**
      * watch the changes
      * @param path
@@ -2,19 +2,30 @@ package com.louis.thrift.register;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.louis.thrift.zk.CuratorFactory;
 import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.framework.recipes.cache.*;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -50,6 +61,23 @@ public class ZkRegistry implements Registry, Closeable {
     private final ConcurrentMap<String, PathChildrenCache> childNodeMap = Maps
             .newConcurrentMap();
 
+    /**
+     * nodes of registerAll, created again once the session is replaced
+     */
+    private final ConcurrentMap<String, byte[]> registered = Maps.newConcurrentMap();
+
+    /**
+     * session owning the registered nodes
+     */
+    private volatile long sessionId;
+
+    private final ConnectionStateListener sessionListener = (client, newState) -> {
+        if(newState == ConnectionState.RECONNECTED && !registered.isEmpty() && sessionId() != sessionId){
+            logger.info("zookeeper session replaced, register " + registered.size() + " nodes again");
+            create(registered);
+        }
+    };
+
     private static final Set<Type> IgnoreTypes = ImmutableSet.of(
             Type.CONNECTION_SUSPENDED, Type.CONNECTION_RECONNECTED,
             Type.CONNECTION_LOST, Type.INITIALIZED);
@@ -85,9 +113,110 @@ public class ZkRegistry implements Registry, Closeable {
         }
     }
 
+    /**
+     * all the nodes are created in a single transaction, the session listener takes over
+     * the registration: one transaction again when the session is replaced
+     * @param nodes data keyed by path
+     */
+    @Override
+    public void registerAll(Map<String, byte[]> nodes) {
+        Assert.notNull(curatorFactory, "curatorFactory must not be null");
+        if(nodes.isEmpty()){
+            return;
+        }
+        registered.putAll(nodes);
+        curatorFactory.client().getConnectionStateListenable().addListener(sessionListener);
+        create(nodes);
+    }
+
+    private void create(Map<String, byte[]> nodes){
+        CuratorFramework client = curatorFactory.client();
+        try {
+            List<CuratorOp> operations = new ArrayList<>(nodes.size());
+            for (Map.Entry<String, byte[]> node : nodes.entrySet()){
+                operations.add(client.transactionOp().create().withMode(CreateMode.EPHEMERAL)
+                        .forPath(node.getKey(), node.getValue()));
+            }
+            try {
+                client.transaction().forOperations(operations);
+            }catch (KeeperException.NoNodeException e){
+                //a transaction doesn't create the parents, first registration of a service
+                Set<String> parents = Sets.newHashSet();
+                for (String path : nodes.keySet()){
+                    if(parents.add(ZKPaths.getPathAndNode(path).getPath())){
+                        ZKPaths.mkdirs(client.getZookeeperClient().getZooKeeper(), ZKPaths.getPathAndNode(path).getPath());
+                    }
+                }
+                client.transaction().forOperations(operations);
+            }
+            sessionId = sessionId();
+            logger.info(nodes.size() + " nodes registered");
+        }catch (KeeperException.NodeExistsException e){
+            //left by the previous session or created already, one by one then
+            logger.warn(e.getMessage() + ", register the nodes one by one");
+            nodes.forEach(this::replace);
+            sessionId = sessionId();
+        }catch (Exception e) {
+            logger.error("create " + nodes.size() + " nodes failed : " + e.getMessage());
+        }
+    }
+
+    /**
+     * create the node, in place of a node of another session which would vanish once the session expires
+     * @param path
+     * @param data
+     */
+    private void replace(String path, byte[] data){
+        try {
+            Stat stat = curatorFactory.client().checkExists().forPath(path);
+            if(stat != null && stat.getEphemeralOwner() != sessionId()){
+                curatorFactory.client().delete().forPath(path);
+            }
+        } catch (Exception e) {
+            logger.warn("replace node " + path + " failed : " + e.getMessage());
+        }
+        register(path, data);
+    }
+
+    private long sessionId(){
+        try {
+            return curatorFactory.client().getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * the nodes are deleted in a single transaction, one by one if some are gone already
+     * @param paths
+     */
+    @Override
+    public void unregisterAll(Collection<String> paths) {
+        Assert.notNull(curatorFactory, "curatorFactory must not be null");
+        if(paths.isEmpty()){
+            return;
+        }
+        CuratorFramework client = curatorFactory.client();
+        try {
+            List<CuratorOp> operations = new ArrayList<>(paths.size());
+            for (String path : paths){
+                registered.remove(path);
+                closeCaches(path);
+                operations.add(client.transactionOp().delete().forPath(path));
+            }
+            client.transaction().forOperations(operations);
+        } catch (Exception e) {
+            logger.warn("delete " + paths.size() + " nodes failed : " + e.getMessage() + ", delete them one by one");
+            paths.forEach(this::unregister);
+        }
+    }
+
     @Override
     public void unregister(String path) {
         Assert.notNull(curatorFactory, "curatorFactory must not be null");
+        registered.remove(path);
+        //a path children cache watching the node would create it again, as a persistent node
+        closeCaches(path);
         try {
             curatorFactory.client().delete().guaranteed().forPath(path);
         } catch (Exception e) {
@@ -95,6 +224,21 @@ public class ZkRegistry implements Registry, Closeable {
         }
     }
 
+    private void closeCaches(String path){
+        try {
+            NodeCache nodeCache = zNodeMap.remove(path);
+            if(nodeCache != null){
+                nodeCache.close();
+            }
+            PathChildrenCache pathChildrenCache = childNodeMap.remove(path);
+            if(pathChildrenCache != null){
+                pathChildrenCache.close();
+            }
+        } catch (IOException e) {
+            logger.warn("close caches of " + path + " failed : " + e.getMessage());
+        }
+    }
+
     @Override
     public void watch(String path, MonitorListener listener) {
         nodeCacheManager.subscribe(path, PathChildrenCache.StartMode.BUILD_INITIAL_CACHE, listener);
@@ -0,0 +1,81 @@
+package com.louis.thrift.shm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Wait of a reader or a writer of a ring for the other process: it spins while the calls follow each other,
+ * then yields, then parks a little longer each time up to a millisecond. Once the wait has lasted a second
+ * the parks grow up to 20 milliseconds, so that an idle connection wakes its thread some 50 times a second,
+ * the first call after a long idleness waits that much more
+ */
+final class Backoff {
+
+    private static final int SPINS = 200;
+
+    private static final int YIELDS = 50;
+
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private int idles;
+
+    private long parkNanos = MIN_PARK_NANOS;
+
+    private long parkedSince;
+
+    /**
+     * @return whether the wait parks, it is long enough to look whether the other process is still there
+     */
+    boolean idle(){
+        if(idles < SPINS){
+            idles++;
+            return false;
+        }
+        if(idles < SPINS + YIELDS){
+            idles++;
+            Thread.yield();
+            return false;
+        }
+        if(idles == SPINS + YIELDS){
+            idles++;
+            parkedSince = System.nanoTime();
+        }
+        LockSupport.parkNanos(parkNanos);
+        if(parkNanos < MAX_PARK_NANOS){
+            parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+        }else if(System.nanoTime() - parkedSince > IDLE_NANOS){
+            parkNanos = Math.min(parkNanos << 1, MAX_IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    void reset(){
+        idles = 0;
+        parkNanos = MIN_PARK_NANOS;
+    }
+}
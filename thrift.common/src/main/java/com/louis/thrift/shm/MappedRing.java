@@ -0,0 +1,154 @@
+package com.louis.thrift.shm;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Bytes going one way between two processes through a region of a mapped file, one writer and one reader.
+ * The writer publishes its position once a message is written, the reader publishes its position as it reads,
+ * each one on its own cache line. Positions only grow, the capacity is a power of two
+ */
+final class MappedRing {
+
+    /**
+     * bytes before the data: the position of the writer, of the reader on the next cache line
+     */
+    static final int HEADER = 128;
+
+    private static final int READER = 64;
+
+    private final long tailAddress;
+
+    private final long headAddress;
+
+    private final long data;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /**
+     * written by the writer, published up to published
+     */
+    private long tail;
+
+    private long published;
+
+    /**
+     * the reader position last seen by the writer
+     */
+    private long headSeen;
+
+    /**
+     * read by the reader
+     */
+    private long head;
+
+    /**
+     * the writer position last seen by the reader
+     */
+    private long tailSeen;
+
+    /**
+     * @param address of the header, followed by the data
+     * @param capacity power of two
+     */
+    MappedRing(long address, int capacity) {
+        this.tailAddress = address;
+        this.headAddress = address + READER;
+        this.data = address + HEADER;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.tail = this.published = Memory.getLongVolatile(tailAddress);
+        this.head = this.headSeen = Memory.getLongVolatile(headAddress);
+        this.tailSeen = tail;
+    }
+
+    static int size(int capacity){
+        return HEADER + capacity;
+    }
+
+    /**
+     * write what fits, unseen by the reader until published
+     * @param src
+     * @param offset
+     * @param length
+     * @return bytes written, 0 if the ring is full
+     */
+    int offer(byte[] src, int offset, int length){
+        if(capacity - (tail - headSeen) < length){
+            headSeen = Memory.getLongVolatile(headAddress);
+        }
+        int count = (int) Math.min(length, capacity - (tail - headSeen));
+        if(count <= 0){
+            return 0;
+        }
+        int index = (int) (tail & mask);
+        int first = Math.min(count, capacity - index);
+        Memory.copy(src, offset, data + index, first);
+        if(first < count){
+            Memory.copy(src, offset + first, data, count - first);
+        }
+        tail += count;
+        return count;
+    }
+
+    /**
+     * let the reader see the bytes written
+     */
+    void publish(){
+        if(published != tail){
+            published = tail;
+            Memory.putLongOrdered(tailAddress, tail);
+        }
+    }
+
+    /**
+     * @param dst
+     * @param offset
+     * @param length
+     * @return bytes read, 0 if none is published
+     */
+    int poll(byte[] dst, int offset, int length){
+        if(tailSeen == head){
+            tailSeen = Memory.getLongVolatile(tailAddress);
+        }
+        int count = (int) Math.min(length, tailSeen - head);
+        if(count <= 0){
+            return 0;
+        }
+        int index = (int) (head & mask);
+        int first = Math.min(count, capacity - index);
+        Memory.copy(data + index, dst, offset, first);
+        if(first < count){
+            Memory.copy(data, dst, offset + first, count - first);
+        }
+        head += count;
+        //the room is given back as soon as it is read
+        Memory.putLongOrdered(headAddress, head);
+        return count;
+    }
+
+    /**
+     * @return bytes published and not read yet
+     */
+    int available(){
+        return (int) (Memory.getLongVolatile(tailAddress) - head);
+    }
+}
@@ -0,0 +1,190 @@
+package com.louis.thrift.shm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Ordered reads and writes of a mapped file shared with another process, which the buffers
+ * of java 8 don't offer. The positions of the rings are published with them.
+ * sun.misc.Unsafe is reached through method handles, constant once inlined
+ */
+final class Memory {
+
+    private static final MethodHandle GET_LONG;
+
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    private static final MethodHandle PUT_ORDERED_LONG;
+
+    private static final MethodHandle GET_INT;
+
+    private static final MethodHandle GET_INT_VOLATILE;
+
+    private static final MethodHandle PUT_INT;
+
+    private static final MethodHandle PUT_INT_VOLATILE;
+
+    private static final MethodHandle COPY_MEMORY;
+
+    private static final MethodHandle UNMAP;
+
+    private static final long ADDRESS;
+
+    private static final long BYTE_ARRAY_BASE;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_LONG = lookup.unreflect(unsafeClass.getMethod("getLong", Object.class, long.class)).bindTo(unsafe);
+            GET_LONG_VOLATILE = lookup.unreflect(unsafeClass.getMethod("getLongVolatile", Object.class, long.class)).bindTo(unsafe);
+            PUT_ORDERED_LONG = lookup.unreflect(unsafeClass.getMethod("putOrderedLong", Object.class, long.class, long.class)).bindTo(unsafe);
+            GET_INT = lookup.unreflect(unsafeClass.getMethod("getInt", long.class)).bindTo(unsafe);
+            GET_INT_VOLATILE = lookup.unreflect(unsafeClass.getMethod("getIntVolatile", Object.class, long.class)).bindTo(unsafe);
+            PUT_INT = lookup.unreflect(unsafeClass.getMethod("putInt", long.class, int.class)).bindTo(unsafe);
+            PUT_INT_VOLATILE = lookup.unreflect(unsafeClass.getMethod("putIntVolatile", Object.class, long.class, int.class)).bindTo(unsafe);
+            COPY_MEMORY = lookup.unreflect(unsafeClass.getMethod("copyMemory", Object.class, long.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            ADDRESS = (long) unsafeClass.getMethod("objectFieldOffset", Field.class).invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            BYTE_ARRAY_BASE = (int) unsafeClass.getMethod("arrayBaseOffset", Class.class).invoke(unsafe, byte[].class);
+            UNMAP = unmap(lookup, unsafeClass, unsafe);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Memory(){
+
+    }
+
+    /**
+     * Unsafe.invokeCleaner since java 9, the cleaner of the buffer before
+     */
+    private static MethodHandle unmap(MethodHandles.Lookup lookup, Class<?> unsafeClass, Object unsafe) throws ReflectiveOperationException {
+        try {
+            return lookup.unreflect(unsafeClass.getMethod("invokeCleaner", ByteBuffer.class)).bindTo(unsafe);
+        } catch (NoSuchMethodException e) {
+            MethodHandle cleaner = lookup.unreflect(Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner"));
+            MethodHandle clean = lookup.unreflect(Class.forName("sun.misc.Cleaner").getMethod("clean"));
+            return MethodHandles.filterReturnValue(cleaner, clean).asType(MethodType.methodType(void.class, ByteBuffer.class));
+        }
+    }
+
+    /**
+     * @param buffer direct, it must stay reachable while the address is used
+     * @return
+     */
+    static long address(ByteBuffer buffer){
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long getLongVolatile(long address){
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * the writes before it are seen by the other process before this one
+     * @param address
+     * @param value
+     */
+    static void putLongOrdered(long address, long value){
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int getIntVolatile(long address){
+        try {
+            return (int) GET_INT_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void putIntVolatile(long address, int value){
+        try {
+            PUT_INT_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void putInt(long address, int value){
+        try {
+            PUT_INT.invokeExact(address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int getInt(long address){
+        try {
+            return (int) GET_INT.invokeExact(address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void copy(byte[] src, int offset, long address, int length){
+        try {
+            COPY_MEMORY.invokeExact((Object) src, BYTE_ARRAY_BASE + offset, (Object) null, address, (long) length);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void copy(long address, byte[] dst, int offset, int length){
+        try {
+            COPY_MEMORY.invokeExact((Object) null, address, (Object) dst, BYTE_ARRAY_BASE + offset, (long) length);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * release the mapping now rather than once the buffer is collected, no address of it may be used after
+     * @param buffer mapped
+     */
+    static void unmap(ByteBuffer buffer){
+        try {
+            UNMAP.invokeExact(buffer);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.louis.thrift.shm;
+
+import com.google.common.collect.Sets;
+import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Accepts the shared memory connections created in a directory, one by provider.
+ * The directory holds the id of the provider, a client finding it there is on the same host
+ */
+public class SharedMemoryServerTransport extends TServerTransport {
+
+    private static final String ID_FILE = "id";
+
+    private static final long ACCEPT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final long MAX_ACCEPT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Logger logger = LoggerFactory.getLogger(SharedMemoryServerTransport.class);
+
+    private final File directory;
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final Set<SharedMemoryTransport> accepted = Sets.newConcurrentHashSet();
+
+    private volatile boolean listening;
+
+    /**
+     * doubled each time the directory has no connection, the clients are pooled and rarely connect
+     */
+    private long acceptPollNanos = ACCEPT_POLL_NANOS;
+
+    private volatile boolean closed;
+
+    public SharedMemoryServerTransport(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @param directory
+     * @param id
+     * @return whether the provider with the id serves in the directory, which is only true on its host
+     */
+    public static boolean reachable(File directory, String id){
+        try {
+            File file = new File(directory, ID_FILE);
+            return file.isFile() && id.equals(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * create the directory and write the id, once
+     * @throws TTransportException
+     */
+    @Override
+    public synchronized void listen() throws TTransportException {
+        if(listening){
+            return;
+        }
+        try {
+            Files.createDirectories(directory.toPath());
+            //connections left by a provider which died on the same port
+            File[] stale = directory.listFiles((dir, name) -> name.startsWith("conn-"));
+            if(stale != null){
+                for (File file : stale){
+                    file.delete();
+                }
+            }
+            File created = new File(directory, ID_FILE + ".tmp");
+            Files.write(created.toPath(), id.getBytes(StandardCharsets.UTF_8));
+            Files.move(created.toPath(), new File(directory, ID_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            listening = true;
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.NOT_OPEN, "Could not listen in " + directory, e);
+        }
+    }
+
+    @Override
+    protected TTransport acceptImpl() throws TTransportException {
+        while (!closed){
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(".ring"));
+            if(files != null){
+                for (File file : files){
+                    try {
+                        SharedMemoryTransport transport = SharedMemoryTransport.accept(file);
+                        accepted.add(transport);
+                        acceptPollNanos = ACCEPT_POLL_NANOS;
+                        return transport;
+                    } catch (IOException e) {
+                        logger.warn("accept " + file + " failed : " + e.getMessage());
+                    }
+                }
+            }
+            LockSupport.parkNanos(acceptPollNanos);
+            acceptPollNanos = Math.min(acceptPollNanos << 1, MAX_ACCEPT_POLL_NANOS);
+        }
+        throw new TTransportException(TTransportException.NOT_OPEN, "Shared memory transport closed");
+    }
+
+    /**
+     * the connection is over
+     * @param transport
+     */
+    public void closed(TTransport transport){
+        accepted.remove(transport);
+        transport.close();
+    }
+
+    /**
+     * stop accepting, the connections end once their call in process is answered
+     */
+    @Override
+    public void close() {
+        if(closed){
+            return;
+        }
+        closed = true;
+        accepted.forEach(SharedMemoryTransport::shutdownInput);
+        new File(directory, ID_FILE).delete();
+        directory.delete();
+    }
+
+    @Override
+    public void interrupt() {
+        close();
+    }
+}
@@ -0,0 +1,385 @@
+package com.louis.thrift.shm;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Connection to a provider on the same host through a mapped file, without a syscall or a copy in the kernel
+ * by call. The file holds a ring each way: the client creates it in the directory of the provider, which maps it
+ * then unlinks it, so nothing is left behind once both sides are done.
+ * A side waiting for the other spins, then parks, and looks now and then whether the other process is still there,
+ * each side holds a lock of its own byte of the file while it lives. A process alive but hung is only noticed
+ * by the timeout of the reads and writes, like on a socket
+ */
+public class SharedMemoryTransport extends TTransport {
+
+    private static final int MAGIC = 0x54534d31;
+
+    /**
+     * magic, capacity of the rings, accepted by the server, closed by the client, closed by the server
+     */
+    private static final int CONTROL = 128;
+
+    private static final int CAPACITY = 4;
+
+    private static final int ACCEPTED = 8;
+
+    private static final int CLIENT_CLOSED = 12;
+
+    private static final int SERVER_CLOSED = 16;
+
+    private static final long CLIENT_LOCK = 0;
+
+    private static final long SERVER_LOCK = 1;
+
+    private static final long LIVENESS_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final File directory;
+
+    private final int capacity;
+
+    private final boolean client;
+
+    private int connectTimeout = 3000;
+
+    /**
+     * millis a read or a write waits for the other side, 0 for no limit
+     */
+    private int timeout;
+
+    private int currentTimeout;
+
+    private FileChannel channel;
+
+    /**
+     * mapped as long as the transport is reachable, the rings use its memory
+     */
+    private MappedByteBuffer buffer;
+
+    private long control;
+
+    private FileLock lock;
+
+    private MappedRing in;
+
+    private MappedRing out;
+
+    private final Backoff backoff = new Backoff();
+
+    private long livenessCheckedAt;
+
+    private volatile boolean open;
+
+    private volatile boolean inputShutdown;
+
+    /**
+     * a client of the provider serving in the directory
+     * @param directory
+     * @param capacity bytes of each ring, rounded up to a power of two
+     */
+    public SharedMemoryTransport(File directory, int capacity) {
+        this.directory = directory;
+        this.capacity = Integer.highestOneBit(Math.max(4096, capacity) - 1) << 1;
+        this.client = true;
+    }
+
+    private SharedMemoryTransport(FileChannel channel, MappedByteBuffer buffer, FileLock lock) {
+        this.directory = null;
+        this.client = false;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.lock = lock;
+        this.control = Memory.address(buffer);
+        this.capacity = Memory.getInt(control + CAPACITY);
+        rings();
+        this.open = true;
+    }
+
+    /**
+     * @param connectTimeout millis the provider may take to accept
+     * @return
+     */
+    public SharedMemoryTransport connectTimeout(int connectTimeout){
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param timeout millis a read or a write waits for the other side, 0 for no limit
+     * @return
+     */
+    public SharedMemoryTransport timeout(int timeout){
+        this.timeout = timeout;
+        this.currentTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * @return timeout in millis the transport was created with, 0 for none
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout millis the next reads and writes wait for the other side, 0 for no limit
+     */
+    public void setTimeout(int timeout){
+        this.currentTimeout = timeout;
+    }
+
+    private static int size(int capacity){
+        return CONTROL + 2 * MappedRing.size(capacity);
+    }
+
+    private void rings(){
+        MappedRing toServer = new MappedRing(control + CONTROL, capacity);
+        MappedRing toClient = new MappedRing(control + CONTROL + MappedRing.size(capacity), capacity);
+        this.in = client ? toClient : toServer;
+        this.out = client ? toServer : toClient;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && Memory.getIntVolatile(control + (client ? SERVER_CLOSED : CLIENT_CLOSED)) == 0;
+    }
+
+    @Override
+    public void open() throws TTransportException {
+        if(open){
+            throw new TTransportException(TTransportException.ALREADY_OPEN, "Shared memory already connected.");
+        }
+        String name = "conn-" + UUID.randomUUID();
+        File created = new File(directory, name + ".tmp");
+        File ready = new File(directory, name + ".ring");
+        try {
+            channel = new RandomAccessFile(created, "rw").getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(capacity));
+            control = Memory.address(buffer);
+            Memory.putInt(control + CAPACITY, capacity);
+            Memory.putIntVolatile(control, MAGIC);
+            lock = channel.lock(CLIENT_LOCK, 1, false);
+            rings();
+            //seen by the provider once it is complete
+            Files.move(created.toPath(), ready.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            created.delete();
+            release();
+            throw new TTransportException(TTransportException.NOT_OPEN, e);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+        while (Memory.getIntVolatile(control + ACCEPTED) == 0){
+            if(System.nanoTime() - deadline > 0){
+                ready.delete();
+                release();
+                throw new TTransportException(TTransportException.TIMED_OUT, "Shared memory not accepted within " + connectTimeout + "ms in " + directory);
+            }
+            backoff.idle();
+        }
+        backoff.reset();
+        open = true;
+    }
+
+    /**
+     * map a connection created by a client, and unlink its file
+     * @param file
+     * @return
+     * @throws IOException if it is no connection
+     */
+    static SharedMemoryTransport accept(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        MappedByteBuffer buffer = null;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            long control = Memory.address(buffer);
+            if(channel.size() < CONTROL || Memory.getIntVolatile(control) != MAGIC
+                    || channel.size() != size(Memory.getInt(control + CAPACITY))){
+                throw new IOException("not a shared memory connection : " + file);
+            }
+            FileLock lock = channel.lock(SERVER_LOCK, 1, false);
+            SharedMemoryTransport transport = new SharedMemoryTransport(channel, buffer, lock);
+            Memory.putIntVolatile(control + ACCEPTED, 1);
+            return transport;
+        } catch (IOException | RuntimeException e) {
+            if(buffer != null){
+                Memory.unmap(buffer);
+            }
+            channel.close();
+            throw e;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        if(!open){
+            throw new TTransportException(TTransportException.NOT_OPEN, "Shared memory not open");
+        }
+        long deadline = 0;
+        while (true){
+            int count = in.poll(buf, off, len);
+            if(count > 0){
+                backoff.reset();
+                return count;
+            }
+            if(!isOpen() || inputShutdown){
+                //what was written before the close is read first
+                count = in.poll(buf, off, len);
+                if(count > 0){
+                    return count;
+                }
+                throw new TTransportException(TTransportException.END_OF_FILE);
+            }
+            if(backoff.idle()){
+                checkPeer();
+                deadline = checkTimeout(deadline);
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+        if(!isOpen()){
+            throw new TTransportException(TTransportException.NOT_OPEN, "Shared memory closed");
+        }
+        long deadline = 0;
+        while (len > 0){
+            int count = out.offer(buf, off, len);
+            off += count;
+            len -= count;
+            if(len > 0){
+                //full, let the reader make room
+                out.publish();
+                if(!isOpen()){
+                    throw new TTransportException(TTransportException.NOT_OPEN, "Shared memory closed");
+                }
+                if(count == 0 && backoff.idle()){
+                    checkPeer();
+                    deadline = checkTimeout(deadline);
+                }
+            }
+        }
+        backoff.reset();
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        if(!open){
+            throw new TTransportException(TTransportException.NOT_OPEN, "Shared memory not open");
+        }
+        out.publish();
+    }
+
+    /**
+     * the other side is gone when its lock can be taken, a lock held in this jvm overlaps
+     * @throws TTransportException
+     */
+    private void checkPeer() throws TTransportException {
+        long now = System.nanoTime();
+        if(now - livenessCheckedAt < LIVENESS_CHECK_NANOS){
+            return;
+        }
+        livenessCheckedAt = now;
+        try {
+            FileLock peer = channel.tryLock(client ? SERVER_LOCK : CLIENT_LOCK, 1, false);
+            if(peer != null){
+                peer.release();
+                close();
+                throw new TTransportException(TTransportException.END_OF_FILE, "The other process of the shared memory exited");
+            }
+        } catch (OverlappingFileLockException e) {
+            //alive in this jvm
+        } catch (IOException e) {
+            //alive as far as we know
+        }
+    }
+
+    /**
+     * checked once a wait parks, the spins before don't count
+     * @param deadline nano time the wait lasts until, 0 when it just started to park
+     * @return the deadline of the wait
+     * @throws TTransportException once it passed
+     */
+    private long checkTimeout(long deadline) throws TTransportException {
+        if(currentTimeout <= 0){
+            return 0;
+        }
+        long now = System.nanoTime();
+        if(deadline == 0){
+            return now + TimeUnit.MILLISECONDS.toNanos(currentTimeout);
+        }
+        if(now - deadline > 0){
+            throw new TTransportException(TTransportException.TIMED_OUT, "Shared memory not answered within " + currentTimeout + "ms");
+        }
+        return deadline;
+    }
+
+    /**
+     * reads end once the bytes published are read, the call in process still answers
+     */
+    public void shutdownInput(){
+        inputShutdown = true;
+    }
+
+    @Override
+    public void close() {
+        if(!open){
+            return;
+        }
+        open = false;
+        Memory.putIntVolatile(control + (client ? CLIENT_CLOSED : SERVER_CLOSED), 1);
+        release();
+    }
+
+    /**
+     * unlock, unmap and close the file, the rings must not be used any more
+     */
+    private void release(){
+        if(buffer != null){
+            Memory.unmap(buffer);
+            buffer = null;
+        }
+        try {
+            if(lock != null && lock.isValid()){
+                lock.release();
+            }
+            if(channel != null){
+                channel.close();
+            }
+        } catch (IOException e) {
+            //nothing to do
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.louis.thrift.stream;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.nio.ByteBuffer;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Arguments and result of the calls of a stream, written by hand as there is no IDL for them.
+ * A stream is a sequence of calls of the service "__stream" multiplexed next to the other services :
+ *
+ * open(service, method) returns the id of the stream
+ * write(id, data, last) sends a chunk of the request, the last one ends it
+ * read(id) returns a chunk of the response, empty while the handler has nothing to send, last once it is done
+ * cancel(id) ends the stream before its response is read
+ *
+ * Each chunk is a frame of its own, bounded by the chunk size, so a payload is never held whole
+ */
+public class StreamFrame {
+
+    public static final String SERVICE = "__stream";
+
+    public static final String OPEN = "open";
+
+    public static final String WRITE = "write";
+
+    public static final String READ = "read";
+
+    public static final String CANCEL = "cancel";
+
+    private static final TStruct STRUCT = new TStruct("StreamFrame");
+
+    private static final TField ID = new TField("id", TType.I64, (short) 1);
+
+    private static final TField SERVICE_NAME = new TField("service", TType.STRING, (short) 2);
+
+    private static final TField METHOD = new TField("method", TType.STRING, (short) 3);
+
+    private static final TField DATA = new TField("data", TType.STRING, (short) 4);
+
+    private static final TField LAST = new TField("last", TType.BOOL, (short) 5);
+
+    private static final TField FULL = new TField("full", TType.BOOL, (short) 6);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private long id;
+
+    private String service;
+
+    private String method;
+
+    private ByteBuffer data = EMPTY;
+
+    private boolean last;
+
+    private boolean full;
+
+    public long getId() {
+        return id;
+    }
+
+    public StreamFrame id(long id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public StreamFrame service(String service) {
+        this.service = service;
+        return this;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public StreamFrame method(String method) {
+        this.method = method;
+        return this;
+    }
+
+    /**
+     * @return the chunk, empty when there is none
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public StreamFrame data(ByteBuffer data) {
+        this.data = data != null ? data : EMPTY;
+        return this;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public StreamFrame last(boolean last) {
+        this.last = last;
+        return this;
+    }
+
+    /**
+     * @return whether the chunk written was refused, the window of the stream being full. It is written again later
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public StreamFrame full(boolean full) {
+        this.full = full;
+        return this;
+    }
+
+    public void read(TProtocol in) throws TException {
+        in.readStructBegin();
+        while (true){
+            TField field = in.readFieldBegin();
+            if(field.type == TType.STOP){
+                break;
+            }
+            if(field.id == ID.id && field.type == ID.type){
+                id = in.readI64();
+            }else if(field.id == SERVICE_NAME.id && field.type == SERVICE_NAME.type){
+                service = in.readString();
+            }else if(field.id == METHOD.id && field.type == METHOD.type){
+                method = in.readString();
+            }else if(field.id == DATA.id && field.type == DATA.type){
+                data = in.readBinary();
+            }else if(field.id == LAST.id && field.type == LAST.type){
+                last = in.readBool();
+            }else if(field.id == FULL.id && field.type == FULL.type){
+                full = in.readBool();
+            }else{
+                TProtocolUtil.skip(in, field.type);
+            }
+            in.readFieldEnd();
+        }
+        in.readStructEnd();
+    }
+
+    /**
+     * only the fields which are set
+     * @param out
+     * @throws TException
+     */
+    public void write(TProtocol out) throws TException {
+        out.writeStructBegin(STRUCT);
+        if(id != 0){
+            out.writeFieldBegin(ID);
+            out.writeI64(id);
+            out.writeFieldEnd();
+        }
+        if(service != null){
+            out.writeFieldBegin(SERVICE_NAME);
+            out.writeString(service);
+            out.writeFieldEnd();
+        }
+        if(method != null){
+            out.writeFieldBegin(METHOD);
+            out.writeString(method);
+            out.writeFieldEnd();
+        }
+        if(data.hasRemaining()){
+            out.writeFieldBegin(DATA);
+            out.writeBinary(data);
+            out.writeFieldEnd();
+        }
+        if(last){
+            out.writeFieldBegin(LAST);
+            out.writeBool(true);
+            out.writeFieldEnd();
+        }
+        if(full){
+            out.writeFieldBegin(FULL);
+            out.writeBool(true);
+            out.writeFieldEnd();
+        }
+        out.writeFieldStop();
+        out.writeStructEnd();
+    }
+}
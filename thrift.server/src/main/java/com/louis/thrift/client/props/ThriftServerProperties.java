@@ -1,11 +1,17 @@
 package com.louis.thrift.client.props;
 
+import com.louis.thrift.concurrent.WorkerMode;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TJSONProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
  Permission is hereby granted, free of charge, to any person obtaining a copy
@@ -31,6 +37,15 @@ public class ThriftServerProperties {
     public static TProtocolFactory[] PROFACT = new TProtocolFactory[]{new TCompactProtocol.Factory(), new TBinaryProtocol.Factory(),
             new TJSONProtocol.Factory()};
 
+    /**
+     * SELECTOR for TThreadedSelectorServer, NETTY for the netty server using epoll when available.
+     * Async handlers, bulkheads and inline methods need the SELECTOR transport
+     */
+    private Transport transport = Transport.SELECTOR;
+
+    /**
+     * selector threads, or io threads of the netty transport
+     */
     private int selectorCount = 2;
 
     /**
@@ -38,6 +53,12 @@ public class ThriftServerProperties {
      */
     private int workerCount = 0;
 
+    /**
+     * PLATFORM - thread pool sized by workerCount
+     * VIRTUAL - one virtual thread per request on java 21+, workerCount is ignored
+     */
+    private WorkerMode workerMode = WorkerMode.PLATFORM;
+
     /**
      * 0 - TCompactProtocol default
      * 1 - TBinaryProtocol
@@ -45,12 +66,82 @@ public class ThriftServerProperties {
      */
     private int protocol = 0;
 
+    /**
+     * Tell the protocol of each connection from its first byte, compact, binary or json,
+     * the protocol above is the one registered for the clients and the fallback
+     */
+    private boolean protocolDetection = true;
+
     /**
      * The size of the blocking queue per selector thread for passing accepted
      * connections to the selector thread
      */
     private int acceptQueueSizePerThread = 4;
 
+    /**
+     * Bytes the frames read from all the connections may hold, the connections stop being read
+     * while it is used up.
+     * 0 presents a quarter of the max heap
+     */
+    private long maxReadBufferBytes = 0;
+
+    /**
+     * Largest frame a connection may send, the connection is closed above it.
+     * A connection holds one frame at a time
+     */
+    private int maxFrameSize = 16384000;
+
+    /**
+     * Dedicated worker pools keyed by service name, so that a slow service
+     * can't starve the others sharing the same port.
+     * Services without an entry use the shared worker pool
+     */
+    private Map<String, Bulkhead> bulkheads = new HashMap<>();
+
+    /**
+     * Methods running on the selector thread instead of the workers
+     */
+    private Inline inline = new Inline();
+
+    /**
+     * Period of the sampling of the selector, read buffer and worker queue metrics,
+     * only used when a MeterRegistry is available
+     */
+    private long samplePeriodMillis = 5000;
+
+    /**
+     * Time left to the clients to see the server leave zookeeper, waited on shutdown
+     * between the removal of its nodes and the drain of the requests in flight
+     */
+    private long shutdownGraceMillis = 3000;
+
+    /**
+     * Longest wait on shutdown for the requests in flight, the server stops anyway afterwards
+     */
+    private long drainTimeoutMillis = 10000;
+
+    /**
+     * Connections of the clients on the same host through mapped files, next to the port
+     */
+    private SharedMemory sharedMemory = new SharedMemory();
+
+    /**
+     * Payloads sent in chunks by the handlers implementing StreamHandler
+     */
+    private Stream stream = new Stream();
+
+    /**
+     * Serialized responses of the idempotent methods, answered again to the same arguments
+     */
+    private ResponseCache responseCache = new ResponseCache();
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
 
     public int getSelectorCount() {
         return selectorCount;
@@ -68,6 +159,14 @@ public class ThriftServerProperties {
         this.workerCount = workerCount;
     }
 
+    public WorkerMode getWorkerMode() {
+        return workerMode;
+    }
+
+    public void setWorkerMode(WorkerMode workerMode) {
+        this.workerMode = workerMode;
+    }
+
     public int getProtocol() {
         return protocol;
     }
@@ -76,6 +175,14 @@ public class ThriftServerProperties {
         this.protocol = protocol;
     }
 
+    public boolean isProtocolDetection() {
+        return protocolDetection;
+    }
+
+    public void setProtocolDetection(boolean protocolDetection) {
+        this.protocolDetection = protocolDetection;
+    }
+
     public int getAcceptQueueSizePerThread() {
         return acceptQueueSizePerThread;
     }
@@ -83,4 +190,314 @@ public class ThriftServerProperties {
     public void setAcceptQueueSizePerThread(int acceptQueueSizePerThread) {
         this.acceptQueueSizePerThread = acceptQueueSizePerThread;
     }
+
+    public long getMaxReadBufferBytes() {
+        return maxReadBufferBytes;
+    }
+
+    public void setMaxReadBufferBytes(long maxReadBufferBytes) {
+        this.maxReadBufferBytes = maxReadBufferBytes;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public Map<String, Bulkhead> getBulkheads() {
+        return bulkheads;
+    }
+
+    public void setBulkheads(Map<String, Bulkhead> bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    public Inline getInline() {
+        return inline;
+    }
+
+    public void setInline(Inline inline) {
+        this.inline = inline;
+    }
+
+    public long getSamplePeriodMillis() {
+        return samplePeriodMillis;
+    }
+
+    public void setSamplePeriodMillis(long samplePeriodMillis) {
+        this.samplePeriodMillis = samplePeriodMillis;
+    }
+
+    public long getShutdownGraceMillis() {
+        return shutdownGraceMillis;
+    }
+
+    public void setShutdownGraceMillis(long shutdownGraceMillis) {
+        this.shutdownGraceMillis = shutdownGraceMillis;
+    }
+
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    public SharedMemory getSharedMemory() {
+        return sharedMemory;
+    }
+
+    public void setSharedMemory(SharedMemory sharedMemory) {
+        this.sharedMemory = sharedMemory;
+    }
+
+    public Stream getStream() {
+        return stream;
+    }
+
+    public void setStream(Stream stream) {
+        this.stream = stream;
+    }
+
+    public enum Transport {
+        SELECTOR,
+        NETTY
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public static class Inline {
+        /**
+         * multiplexed method names, like ${serviceName}:${methodName},
+         * handler methods annotated with @SelectorInline are added as well
+         */
+        private List<String> methods = new ArrayList<>();
+        /**
+         * a call running longer than it on the selector thread is a violation
+         */
+        private long thresholdMicros = 100;
+        /**
+         * a method is moved back to the workers once it has so many violations within the window
+         */
+        private int maxViolations = 3;
+        /**
+         * millis the violations are counted over, the count starts again after it so that
+         * the rare slow calls, like the ones caught by a gc pause, never add up
+         */
+        private long violationWindowMillis = 1000;
+
+        public List<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(List<String> methods) {
+            this.methods = methods;
+        }
+
+        public long getThresholdMicros() {
+            return thresholdMicros;
+        }
+
+        public void setThresholdMicros(long thresholdMicros) {
+            this.thresholdMicros = thresholdMicros;
+        }
+
+        public int getMaxViolations() {
+            return maxViolations;
+        }
+
+        public void setMaxViolations(int maxViolations) {
+            this.maxViolations = maxViolations;
+        }
+
+        public long getViolationWindowMillis() {
+            return violationWindowMillis;
+        }
+
+        public void setViolationWindowMillis(long violationWindowMillis) {
+            this.violationWindowMillis = violationWindowMillis;
+        }
+    }
+
+    public static class Bulkhead {
+        /**
+         * max number of requests of the service running at the same time
+         */
+        private int workerCount = 4;
+        /**
+         * max number of requests of the service waiting for a worker,
+         * the connection is closed once the queue is full
+         */
+        private int queueSize = 64;
+
+        public int getWorkerCount() {
+            return workerCount;
+        }
+
+        public void setWorkerCount(int workerCount) {
+            this.workerCount = workerCount;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+    }
+
+    public static class SharedMemory {
+
+        private boolean enabled = false;
+        /**
+         * the connection files are created in ${directory}/thrift-${port}, /dev/shm keeps them in memory.
+         * The temporary directory is used when it is missing
+         */
+        private String directory = "/dev/shm";
+        /**
+         * bytes of each ring of a connection, a power of two. A larger message goes through in pieces
+         */
+        private int ringSize = 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getRingSize() {
+            return ringSize;
+        }
+
+        public void setRingSize(int ringSize) {
+            this.ringSize = ringSize;
+        }
+    }
+
+    public static class Stream {
+        /**
+         * bytes of a chunk of a response, below maxFrameSize
+         */
+        private int chunkSize = 64 * 1024;
+        /**
+         * chunks waiting each way per stream, a stream holds at most 2 * window * chunkSize bytes
+         */
+        private int window = 4;
+        /**
+         * streams going on at the same time, more are refused
+         */
+        private int maxStreams = 64;
+        /**
+         * a stream without a call of its client for so long is cancelled,
+         * and one whose handler takes no chunk of the request for so long fails
+         */
+        private long idleTimeoutMillis = 30000;
+        /**
+         * millis a chunk written when the window is full, or a read finding no chunk, waits for the handler
+         * on its worker, 0 to answer at once and let the client poll
+         */
+        private long holdMillis = 10;
+        /**
+         * calls of the streams waiting for their handler at the same time, the others are answered at once.
+         * Keep it below the workers so that the streams never hold all of them
+         */
+        private int maxHolding = 1;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+
+        public int getMaxStreams() {
+            return maxStreams;
+        }
+
+        public void setMaxStreams(int maxStreams) {
+            this.maxStreams = maxStreams;
+        }
+
+        public long getIdleTimeoutMillis() {
+            return idleTimeoutMillis;
+        }
+
+        public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        public long getHoldMillis() {
+            return holdMillis;
+        }
+
+        public void setHoldMillis(long holdMillis) {
+            this.holdMillis = holdMillis;
+        }
+
+        public int getMaxHolding() {
+            return maxHolding;
+        }
+
+        public void setMaxHolding(int maxHolding) {
+            this.maxHolding = maxHolding;
+        }
+    }
+
+    public static class ResponseCache {
+        /**
+         * millis a response is answered again, by multiplexed method name like ${serviceName}:${methodName},
+         * handler methods annotated with @CachedResponse are added as well
+         */
+        private Map<String, Long> methods = new HashMap<>();
+        /**
+         * bytes of the arguments and the responses held by the cache, the least used ones are evicted beyond
+         */
+        private long maxBytes = 64 * 1024 * 1024;
+
+        public Map<String, Long> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(Map<String, Long> methods) {
+            this.methods = methods;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package com.louis.thrift.server;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Bounded worker pools dedicated to single services
+ */
+public class Bulkheads {
+
+    private final Logger logger = LoggerFactory.getLogger(Bulkheads.class);
+
+    private final Map<String, ExecutorService> executors = Maps.newConcurrentMap();
+
+    private Bulkheads(){
+
+    }
+
+    /**
+     * build the pools of the given services
+     * @param bulkheads
+     * @return
+     */
+    public static Bulkheads build(Map<String, ThriftServerProperties.Bulkhead> bulkheads){
+        Bulkheads instance = new Bulkheads();
+        if(bulkheads != null){
+            for (Map.Entry<String, ThriftServerProperties.Bulkhead> entry : bulkheads.entrySet()){
+                instance.executors.put(entry.getKey(), newExecutor(entry.getKey(), entry.getValue()));
+            }
+        }
+        return instance;
+    }
+
+    private static ExecutorService newExecutor(String service, ThriftServerProperties.Bulkhead bulkhead){
+        return new ThreadPoolExecutor(bulkhead.getWorkerCount(), bulkhead.getWorkerCount(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, bulkhead.getQueueSize())),
+                new ThreadFactoryBuilder().setNameFormat("thrift-" + service + "-%d").setDaemon(true).build());
+    }
+
+    public boolean isEmpty(){
+        return executors.isEmpty();
+    }
+
+    /**
+     * the pool of the service
+     * @param service
+     * @return null if the service shares the default pool
+     */
+    public ExecutorService get(String service){
+        return service == null ? null : executors.get(service);
+    }
+
+    /**
+     * drop the pools of the services which are not served
+     * @param services
+     */
+    public void retain(Iterable<String> services){
+        Map<String, ExecutorService> served = Maps.newHashMap();
+        for (String service : services){
+            ExecutorService executor = executors.remove(service);
+            if(executor != null){
+                served.put(service, executor);
+            }
+        }
+        for (Map.Entry<String, ExecutorService> entry : executors.entrySet()){
+            logger.warn("bulkhead of " + entry.getKey() + " is ignored, no such service");
+            entry.getValue().shutdown();
+        }
+        executors.clear();
+        executors.putAll(served);
+    }
+
+    public void shutdown(){
+        executors.values().forEach(ExecutorService::shutdown);
+    }
+}
@@ -0,0 +1,88 @@
+package com.louis.thrift.server;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * TTransport reading a frame and writing the response straight into netty buffers, without a copy into byte[].
+ * Heap buffers expose their array to the protocols like TMemoryInputTransport does
+ */
+final class ByteBufTransport extends TTransport {
+
+    private ByteBuf in;
+
+    private ByteBuf out;
+
+    void wrap(ByteBuf in, ByteBuf out){
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return in != null;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        int readable = Math.min(len, in.readableBytes());
+        if(readable <= 0){
+            throw new TTransportException(TTransportException.END_OF_FILE, "frame is over");
+        }
+        in.readBytes(buf, off, readable);
+        return readable;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        out.writeBytes(buf, off, len);
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return in.hasArray() ? in.array() : null;
+    }
+
+    @Override
+    public int getBufferPosition() {
+        return in.hasArray() ? in.arrayOffset() + in.readerIndex() : 0;
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+        return in.hasArray() ? in.readableBytes() : -1;
+    }
+
+    @Override
+    public void consumeBuffer(int len) {
+        in.skipBytes(len);
+    }
+}
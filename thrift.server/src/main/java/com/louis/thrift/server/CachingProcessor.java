@@ -0,0 +1,328 @@
+package com.louis.thrift.server;
+
+import com.google.common.collect.Maps;
+import com.louis.thrift.protocol.ProtocolType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolDecorator;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Decorate the processor of a service to answer the calls of its cached methods from the ResponseCache.
+ * The key is the serialized arguments: the rest of the frame when the transport has a buffer,
+ * otherwise the arguments read and transcoded to the compact protocol, which json can't be.
+ * A hit writes the cached body of the reply behind a message header with the sequence id of the call,
+ * neither the handler nor the serialization of the result run, the hit is recorded as a call of the method
+ * when the processor is metered.
+ * Only the replies with a result are cached: the exceptions, declared ones included, are answered once
+ */
+class CachingProcessor implements TProcessor {
+
+    private final String service;
+
+    private final TProcessor processor;
+
+    private final ResponseCache cache;
+
+    /**
+     * null when the calls are not metered
+     */
+    private final MeteredProcessor metered;
+
+    private final Map<String, CachedMethod> methods = Maps.newHashMap();
+
+    /**
+     * @param service
+     * @param processor
+     * @param ttls millis by method name
+     * @param cache
+     * @param registry null for no metrics
+     */
+    CachingProcessor(String service, TProcessor processor, Map<String, Long> ttls, ResponseCache cache, MeterRegistry registry) {
+        this.service = service;
+        this.processor = processor;
+        this.cache = cache;
+        this.metered = processor instanceof MeteredProcessor ? (MeteredProcessor) processor : null;
+        for (Map.Entry<String, Long> entry : ttls.entrySet()){
+            methods.put(entry.getKey(), new CachedMethod(service, entry.getKey(), entry.getValue(), registry));
+        }
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        CachedMethod method = methods.get(message.name);
+        ProtocolType protocol = ProtocolDetection.typeOf(out);
+        TTransport transport = in.getTransport();
+        int remaining = transport.getBytesRemainingInBuffer();
+        boolean buffered = remaining >= 0 && transport.getBuffer() != null;
+        if(method == null || message.type != TMessageType.CALL || protocol == null || (!buffered && protocol == ProtocolType.JSON)){
+            return processor.process(new StoredMessageProtocol(in, message), out);
+        }
+        byte[] args;
+        TProtocol replay;
+        if(buffered){
+            int position = transport.getBufferPosition();
+            args = Arrays.copyOfRange(transport.getBuffer(), position, position + remaining);
+            replay = new StoredMessageProtocol(in, message);
+        }else{
+            TMemoryBuffer compact = new TMemoryBuffer(256);
+            transcode(in, new TCompactProtocol(compact), TType.STRUCT);
+            in.readMessageEnd();
+            args = Arrays.copyOf(compact.getArray(), compact.length());
+            replay = new StoredMessageProtocol(new TCompactProtocol(new TMemoryInputTransport(args)), message);
+        }
+        ResponseCache.Key key = new ResponseCache.Key(service, message.name, protocol, !buffered, args);
+        byte[] body = cache.get(key);
+        if(body != null){
+            long start = System.nanoTime();
+            method.hit();
+            if(buffered && protocol == ProtocolType.JSON){
+                //the json protocol looks ahead, its reader must go through the arguments
+                TProtocolUtil.skip(in, TType.STRUCT);
+                in.readMessageEnd();
+            }else if(buffered){
+                transport.consumeBuffer(remaining);
+            }
+            write(out, new TMessage(message.name, TMessageType.REPLY, message.seqid), body, 0, body.length);
+            if(metered != null){
+                metered.metrics(message.name).record(System.nanoTime() - start, MeteredProcessor.frameSize(transport),
+                        MeteredProcessor.lastFrameSize(out.getTransport()), false);
+            }
+            return true;
+        }
+        method.miss();
+        TMemoryBuffer buffer = new TMemoryBuffer(256);
+        Capture capture = new Capture(protocol.factory().getProtocol(buffer), buffer);
+        boolean success = processor.process(replay, capture);
+        if(capture.message == null){
+            //oneway
+            return success;
+        }
+        write(out, capture.message, buffer.getArray(), capture.start, capture.end - capture.start);
+        if(success && capture.message.type == TMessageType.REPLY && capture.result){
+            cache.put(key, Arrays.copyOfRange(buffer.getArray(), capture.start, capture.end), method.ttlNanos);
+        }
+        return success;
+    }
+
+    /**
+     * a message of the output protocol around a body serialized in it already
+     */
+    private static void write(TProtocol out, TMessage message, byte[] body, int offset, int length) throws TException {
+        out.writeMessageBegin(message);
+        out.getTransport().write(body, offset, length);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+    }
+
+    /**
+     * read a value of the input protocol and write it to the output protocol, the binaries as they are
+     */
+    private static void transcode(TProtocol in, TProtocol out, byte type) throws TException {
+        switch (type){
+            case TType.BOOL:
+                out.writeBool(in.readBool());
+                break;
+            case TType.BYTE:
+                out.writeByte(in.readByte());
+                break;
+            case TType.I16:
+                out.writeI16(in.readI16());
+                break;
+            case TType.I32:
+                out.writeI32(in.readI32());
+                break;
+            case TType.I64:
+                out.writeI64(in.readI64());
+                break;
+            case TType.DOUBLE:
+                out.writeDouble(in.readDouble());
+                break;
+            case TType.STRING:
+                out.writeBinary(in.readBinary());
+                break;
+            case TType.STRUCT:
+                out.writeStructBegin(in.readStructBegin());
+                while (true){
+                    TField field = in.readFieldBegin();
+                    if(field.type == TType.STOP){
+                        break;
+                    }
+                    out.writeFieldBegin(field);
+                    transcode(in, out, field.type);
+                    in.readFieldEnd();
+                    out.writeFieldEnd();
+                }
+                out.writeFieldStop();
+                in.readStructEnd();
+                out.writeStructEnd();
+                break;
+            case TType.MAP:
+                TMap map = in.readMapBegin();
+                out.writeMapBegin(map);
+                for (int i = 0; i < map.size; i++){
+                    transcode(in, out, map.keyType);
+                    transcode(in, out, map.valueType);
+                }
+                in.readMapEnd();
+                out.writeMapEnd();
+                break;
+            case TType.SET:
+                TSet set = in.readSetBegin();
+                out.writeSetBegin(set);
+                for (int i = 0; i < set.size; i++){
+                    transcode(in, out, set.elemType);
+                }
+                in.readSetEnd();
+                out.writeSetEnd();
+                break;
+            case TType.LIST:
+                TList list = in.readListBegin();
+                out.writeListBegin(list);
+                for (int i = 0; i < list.size; i++){
+                    transcode(in, out, list.elemType);
+                }
+                in.readListEnd();
+                out.writeListEnd();
+                break;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "unknown type " + type);
+        }
+    }
+
+    /**
+     * a cached method of the service
+     */
+    private static class CachedMethod {
+
+        private final long ttlNanos;
+
+        private final Counter hits;
+
+        private final Counter misses;
+
+        CachedMethod(String service, String method, long ttlMillis, MeterRegistry registry) {
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+            this.hits = registry == null ? null : Counter.builder("thrift.server.response.cache.hits")
+                    .description("calls answered from the cache")
+                    .tags("service", service, "method", method)
+                    .register(registry);
+            this.misses = registry == null ? null : Counter.builder("thrift.server.response.cache.misses")
+                    .description("calls of a cached method run by the handler")
+                    .tags("service", service, "method", method)
+                    .register(registry);
+        }
+
+        void hit(){
+            if(hits != null){
+                hits.increment();
+            }
+        }
+
+        void miss(){
+            if(misses != null){
+                misses.increment();
+            }
+        }
+    }
+
+    /**
+     * remember the message written, where its body starts and ends in the buffer,
+     * and whether the first field of the result struct is the success one, not a declared exception nor the stop of a void
+     */
+    private static class Capture extends TProtocolDecorator {
+
+        private final TMemoryBuffer buffer;
+
+        private TMessage message;
+
+        private int start;
+
+        private int end;
+
+        private int depth;
+
+        private boolean fielded;
+
+        private boolean result;
+
+        Capture(TProtocol protocol, TMemoryBuffer buffer) {
+            super(protocol);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void writeMessageBegin(TMessage message) throws TException {
+            super.writeMessageBegin(message);
+            this.message = message;
+            this.start = buffer.length();
+        }
+
+        @Override
+        public void writeStructBegin(TStruct struct) throws TException {
+            depth++;
+            super.writeStructBegin(struct);
+        }
+
+        @Override
+        public void writeStructEnd() throws TException {
+            depth--;
+            super.writeStructEnd();
+        }
+
+        @Override
+        public void writeFieldBegin(TField field) throws TException {
+            if(depth == 1 && !fielded){
+                fielded = true;
+                result = field.id == 0;
+            }
+            super.writeFieldBegin(field);
+        }
+
+        @Override
+        public void writeMessageEnd() throws TException {
+            this.end = buffer.length();
+            super.writeMessageEnd();
+        }
+    }
+}
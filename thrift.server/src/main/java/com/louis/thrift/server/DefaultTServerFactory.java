@@ -3,26 +3,39 @@ package com.louis.thrift.server;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.louis.thrift.RpcConstants;
+import com.louis.thrift.anno.CachedResponse;
+import com.louis.thrift.anno.SelectorInline;
 import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.concurrent.WorkerExecutors;
+import com.louis.thrift.protocol.ProtocolType;
+import com.louis.thrift.provider.LocalServices;
+import com.louis.thrift.provider.ProviderMetadata;
 import com.louis.thrift.register.Registry;
 import com.louis.thrift.register.ZkRegistry;
+import com.louis.thrift.shm.SharedMemoryServerTransport;
+import com.louis.thrift.stream.StreamFrame;
 import com.louis.thrift.zk.CuratorFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.thrift.TMultiplexedProcessor;
 import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.TThreadedSelectorServer;
 import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /****************************************************************************
  Copyright (c) 2017 Louis Y P Chen.
@@ -48,10 +61,32 @@ public class DefaultTServerFactory implements TServerFactory, Server{
 
     private ExecutorService executor = Executors.newSingleThreadExecutor();
 
-    private Set<String> pathSet = Sets.newCopyOnWriteArraySet();
+    /**
+     * registered paths
+     */
+    private Set<String> registrations = Sets.newConcurrentHashSet();
+
+    /**
+     * handlers the clients in this jvm call directly
+     */
+    private final Map<String, Object> localHandlers = Maps.newConcurrentMap();
+
+    private final InFlightRequests inFlight = new InFlightRequests();
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
 
     private TServer server;
 
+    /**
+     * the clients on the same host, next to the server
+     */
+    private SharedMemoryTServer sharedMemoryServer;
+
+    /**
+     * the streams of the handlers implementing StreamHandler, null without any
+     */
+    private StreamProcessor streamProcessor;
+
     private TServerBuilder builder;
 
     private Registry registry;
@@ -62,12 +97,7 @@ public class DefaultTServerFactory implements TServerFactory, Server{
             this.registry = ZkRegistry.build().curatorFactory(builder.curatorFactory);
         }
         //add shut down hook
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            stop();
-            if(executor != null && !executor.isShutdown()){
-                executor.shutdown();
-            }
-        }));
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
     }
 
     public static TServerBuilder custom(){
@@ -75,61 +105,364 @@ public class DefaultTServerFactory implements TServerFactory, Server{
     }
 
     /**
-     * register the service
-     * reconnect even the session is lost
+     * register the services in a single transaction, the server shows up with all of them at once,
+     * the registry registers them again when the session is lost
      */
     private void registerGuaranteed(){
         if(this.registry != null){
+            Map<String, String> metadata = Maps.newLinkedHashMap();
+            metadata.put(ProviderMetadata.REGISTERED, String.valueOf(System.currentTimeMillis()));
+            int protocol = builder.thriftServerProperties != null ? builder.thriftServerProperties.getProtocol() : 0;
+            metadata.put(ProviderMetadata.PROTOCOL, ProtocolType.of(protocol).name().toLowerCase());
+            if(sharedMemoryServer != null){
+                SharedMemoryServerTransport transport = sharedMemoryServer.transport();
+                metadata.put(ProviderMetadata.SHM_DIRECTORY, transport.getDirectory().getAbsolutePath());
+                metadata.put(ProviderMetadata.SHM_ID, transport.getId());
+                metadata.put(ProviderMetadata.SHM_RING_SIZE, String.valueOf(builder.thriftServerProperties.getSharedMemory().getRingSize()));
+            }
+            byte[] data = ProviderMetadata.encode(metadata);
+            Map<String, byte[]> nodes = Maps.newLinkedHashMap();
+            for (String service : builder.serviceNames()){
+                nodes.put(String.format("/%s/%s/%s:%s", RpcConstants.ROOT, service, builder.serverIpResolve.getServerIp(), String.valueOf(builder.port)), data);
+            }
+            this.registry.registerAll(nodes);
+            registrations.addAll(nodes.keySet());
+        }
+    }
+
+    /**
+     * let the clients in this jvm call the handlers of the synchronous processors,
+     * the async handlers are left to the server
+     */
+    private void exposeLocally(){
+        for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
+            Object handler = Processors.handlerOf(entry.getValue());
+            if(handler != null){
+                LocalServices.register(entry.getKey(), handler);
+                localHandlers.put(entry.getKey(), handler);
+            }
+        }
+    }
+
+    /**
+     * the synchronous processors share a TMultiplexedProcessor as usual,
+     * async handlers need the AsyncFrameBuffer of TMultiplexedAsyncProcessor
+     * @return
+     */
+    private TProcessor multiplex(){
+        streamProcessor = streamProcessor();
+        Map<String, Map<String, Long>> cachedMethods = cachedMethods(builder.thriftServerProperties != null ?
+                builder.thriftServerProperties.getResponseCache() : new ThriftServerProperties.ResponseCache());
+        ResponseCache responseCache = responseCache(cachedMethods);
+        if(builder.asyncHandlerMap.isEmpty()){
+            TMultiplexedProcessor tMultiplexedProcessor = new TMultiplexedProcessor();
             for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
-                String path = String.format("/%s/%s/%s:%s", RpcConstants.ROOT, entry.getKey(), builder.serverIpResolve.getServerIp(), String.valueOf(builder.port));
-                byte[] data = String.valueOf(System.currentTimeMillis()).getBytes();
-                this.registry.register(path, data);
-                this.registry.watch(path, event -> {
-                    switch (event.getType()) {
-                        case NODE_CHANGED:
-                            registry.register(path, data);
-                            break;
-                        default:
-                            break;
-                    }
-                });
-                pathSet.add(path);
+                tMultiplexedProcessor.registerProcessor(entry.getKey(),
+                        cache(entry.getKey(), decorate(entry.getKey(), entry.getValue()), cachedMethods, responseCache));
+            }
+            if(streamProcessor != null){
+                tMultiplexedProcessor.registerProcessor(StreamFrame.SERVICE, decorate(StreamFrame.SERVICE, streamProcessor));
+            }
+            return tMultiplexedProcessor;
+        }
+        TMultiplexedAsyncProcessor tMultiplexedAsyncProcessor = new TMultiplexedAsyncProcessor(builder.meterRegistry);
+        tMultiplexedAsyncProcessor.inFlight(inFlight);
+        for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
+            tMultiplexedAsyncProcessor.registerProcessor(entry.getKey(),
+                    cache(entry.getKey(), decorate(entry.getKey(), entry.getValue()), cachedMethods, responseCache));
+        }
+        if(streamProcessor != null){
+            tMultiplexedAsyncProcessor.registerProcessor(StreamFrame.SERVICE, decorate(StreamFrame.SERVICE, streamProcessor));
+        }
+        for (Map.Entry<String, Object> entry : builder.asyncHandlerMap.entrySet()){
+            tMultiplexedAsyncProcessor.registerAsyncHandler(entry.getKey(), entry.getValue());
+        }
+        return tMultiplexedAsyncProcessor;
+    }
+
+    /**
+     * the handlers implementing StreamHandler, keyed by service name
+     * @return null if none does
+     */
+    private StreamProcessor streamProcessor(){
+        Map<String, StreamHandler> handlers = Maps.newHashMap();
+        for (Map.Entry<String, Object> entry : builder.asyncHandlerMap.entrySet()){
+            if(entry.getValue() instanceof StreamHandler){
+                handlers.put(entry.getKey(), (StreamHandler) entry.getValue());
+            }
+        }
+        for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
+            Object handler = Processors.handlerOf(entry.getValue());
+            if(handler instanceof StreamHandler){
+                handlers.put(entry.getKey(), (StreamHandler) handler);
+            }
+        }
+        if(handlers.isEmpty()){
+            return null;
+        }
+        return new StreamProcessor(handlers, builder.thriftServerProperties != null ?
+                builder.thriftServerProperties : new ThriftServerProperties());
+    }
+
+    /**
+     * record the calls of the service when there is a meter registry
+     * @param service
+     * @param processor
+     * @return
+     */
+    private TProcessor decorate(String service, TProcessor processor){
+        if(builder.meterRegistry == null){
+            return processor;
+        }
+        return new MeteredProcessor(service, processor, builder.meterRegistry);
+    }
+
+    /**
+     * answer the cached methods of the service from the response cache
+     * @param service
+     * @param processor
+     * @param cachedMethods
+     * @param responseCache
+     * @return
+     */
+    private TProcessor cache(String service, TProcessor processor, Map<String, Map<String, Long>> cachedMethods, ResponseCache responseCache){
+        Map<String, Long> ttls = cachedMethods.get(service);
+        if(ttls == null){
+            return processor;
+        }
+        return new CachingProcessor(service, processor, ttls, responseCache, builder.meterRegistry);
+    }
+
+    /**
+     * one cache for all the services, bound to the longest ttl
+     * @param cachedMethods
+     * @return null if no method is cached
+     */
+    private ResponseCache responseCache(Map<String, Map<String, Long>> cachedMethods){
+        long maxTtlMillis = 0;
+        for (Map<String, Long> ttls : cachedMethods.values()){
+            for (long ttl : ttls.values()){
+                maxTtlMillis = Math.max(maxTtlMillis, ttl);
+            }
+        }
+        if(maxTtlMillis == 0){
+            return null;
+        }
+        long maxBytes = builder.thriftServerProperties != null ?
+                builder.thriftServerProperties.getResponseCache().getMaxBytes() : new ThriftServerProperties.ResponseCache().getMaxBytes();
+        ResponseCache responseCache = new ResponseCache(maxBytes, maxTtlMillis);
+        if(builder.meterRegistry != null){
+            responseCache.bindTo(builder.meterRegistry);
+        }
+        return responseCache;
+    }
+
+    /**
+     * ttl millis of the synchronous methods configured or annotated with @CachedResponse, by service then method name
+     * @param properties
+     * @return
+     */
+    private Map<String, Map<String, Long>> cachedMethods(ThriftServerProperties.ResponseCache properties){
+        Map<String, Map<String, Long>> cachedMethods = Maps.newHashMap();
+        for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
+            Object handler = Processors.handlerOf(entry.getValue());
+            if(handler == null){
+                continue;
+            }
+            for (Method method : handler.getClass().getMethods()){
+                CachedResponse cachedResponse = method.getAnnotation(CachedResponse.class);
+                if(cachedResponse != null && cachedResponse.ttlMillis() > 0){
+                    cachedMethods.computeIfAbsent(entry.getKey(), service -> Maps.newHashMap())
+                            .put(method.getName(), cachedResponse.ttlMillis());
+                }
+            }
+        }
+        for (Map.Entry<String, Long> entry : properties.getMethods().entrySet()){
+            int separator = entry.getKey().indexOf(TMultiplexedProtocol.SEPARATOR);
+            if(separator < 0 || !builder.processorMap.containsKey(entry.getKey().substring(0, separator))){
+                logger.error("no synchronous service for the cached method : " + entry.getKey());
+                continue;
+            }
+            if(entry.getValue() == null || entry.getValue() <= 0){
+                continue;
+            }
+            cachedMethods.computeIfAbsent(entry.getKey().substring(0, separator), service -> Maps.newHashMap())
+                    .put(entry.getKey().substring(separator + TMultiplexedProtocol.SEPARATOR.length()), entry.getValue());
+        }
+        return cachedMethods;
+    }
+
+    /**
+     * methods configured or annotated with @SelectorInline
+     * @param inline
+     * @return
+     */
+    private InlineMethods inlineMethods(ThriftServerProperties.Inline inline){
+        InlineMethods inlineMethods = new InlineMethods(inline.getThresholdMicros(), inline.getMaxViolations(), inline.getViolationWindowMillis());
+        inline.getMethods().forEach(inlineMethods::add);
+        Map<String, Object> handlers = Maps.newHashMap(builder.asyncHandlerMap);
+        for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
+            Object handler = Processors.handlerOf(entry.getValue());
+            if(handler != null){
+                handlers.put(entry.getKey(), handler);
+            }
+        }
+        for (Map.Entry<String, Object> entry : handlers.entrySet()){
+            for (Method method : entry.getValue().getClass().getMethods()){
+                if(method.isAnnotationPresent(SelectorInline.class)){
+                    inlineMethods.add(entry.getKey() + TMultiplexedProtocol.SEPARATOR + method.getName());
+                }
             }
         }
+        return inlineMethods;
+    }
+
+    private ExecutorService workers(ThriftServerProperties thriftServerProperties){
+        int workerCount = thriftServerProperties.getWorkerCount();
+        return WorkerExecutors.newExecutor(thriftServerProperties.getWorkerMode(), "thrift-worker-",
+                () -> workerCount != 0 ? Executors.newFixedThreadPool(workerCount) : Executors.newCachedThreadPool());
+    }
+
+    /**
+     * the budget of the read buffers, big enough for the largest frame
+     * @param thriftServerProperties
+     * @return
+     */
+    private static long maxReadBufferBytes(ThriftServerProperties thriftServerProperties){
+        long maxReadBufferBytes = thriftServerProperties.getMaxReadBufferBytes() > 0 ?
+                thriftServerProperties.getMaxReadBufferBytes() : Runtime.getRuntime().maxMemory() / 4;
+        return Math.max(maxReadBufferBytes, thriftServerProperties.getMaxFrameSize());
+    }
+
+    private boolean netty(){
+        if(builder.thriftServerProperties == null || builder.thriftServerProperties.getTransport() != ThriftServerProperties.Transport.NETTY){
+            return false;
+        }
+        if(!builder.asyncHandlerMap.isEmpty()){
+            logger.warn("async handlers need the selector server, the netty transport is ignored");
+            return false;
+        }
+        if(!builder.thriftServerProperties.getBulkheads().isEmpty() || !builder.thriftServerProperties.getInline().getMethods().isEmpty()){
+            logger.warn("bulkheads and inline methods are only applied by the selector server");
+        }
+        return true;
+    }
+
+    /**
+     * same processor, protocol and workers as the selector server, the frames are read by netty
+     * @param processor
+     * @return
+     */
+    private TServer createNetty(TProcessor processor){
+        NettyTServer.Args args = new NettyTServer.Args(builder.port)
+                .ioThreads(builder.thriftServerProperties.getSelectorCount())
+                .maxFrameSize(builder.thriftServerProperties.getMaxFrameSize())
+                .maxReadBufferBytes(maxReadBufferBytes(builder.thriftServerProperties))
+                .executorService(workers(builder.thriftServerProperties))
+                .inFlight(inFlight);
+        protocols(args, builder.thriftServerProperties);
+        args.processor(processor);
+        NettyTServer nettyTServer = new NettyTServer(args);
+        if(builder.meterRegistry != null){
+            nettyTServer.readBudget().bindTo(builder.meterRegistry);
+        }
+        return nettyTServer;
+    }
+
+    /**
+     * same processor and protocol as the server, when the shared memory is enabled
+     * @param processor
+     * @return null if it is not
+     */
+    private SharedMemoryTServer createSharedMemory(TProcessor processor){
+        if(builder.thriftServerProperties == null || !builder.thriftServerProperties.getSharedMemory().isEnabled()){
+            return null;
+        }
+        if(!builder.asyncHandlerMap.isEmpty()){
+            logger.warn("async handlers need the selector server, the shared memory is ignored");
+            return null;
+        }
+        ThriftServerProperties.SharedMemory sharedMemory = builder.thriftServerProperties.getSharedMemory();
+        File directory = new File(sharedMemory.getDirectory());
+        if(!directory.isDirectory()){
+            directory = new File(System.getProperty("java.io.tmpdir"));
+        }
+        SharedMemoryTServer.Args args = new SharedMemoryTServer.Args(new SharedMemoryServerTransport(new File(directory, "thrift-" + builder.port)));
+        protocols(args, builder.thriftServerProperties);
+        args.processor(processor);
+        return new SharedMemoryTServer(args);
+    }
+
+    /**
+     * the protocol of the properties, or the one of each connection when it is detected
+     * @param args
+     * @param properties
+     */
+    private static void protocols(TServer.AbstractServerArgs<?> args, ThriftServerProperties properties){
+        ProtocolType preferred = ProtocolType.of(properties.getProtocol());
+        if(properties.isProtocolDetection()){
+            ProtocolDetection detection = new ProtocolDetection(preferred);
+            args.inputProtocolFactory(detection.input());
+            args.outputProtocolFactory(detection.output());
+        }else{
+            args.protocolFactory(preferred.factory());
+        }
     }
 
     @Override
     public TServer create(){
         //Assert.notNull(builder.processorMap, "processorMap must not be null");
-        TMultiplexedProcessor tMultiplexedProcessor = new TMultiplexedProcessor();
-        for (Map.Entry<String, TProcessor> entry : builder.processorMap.entrySet()){
-            tMultiplexedProcessor.registerProcessor(entry.getKey(), entry.getValue());
+        TProcessor tMultiplexedProcessor = multiplex();
+        sharedMemoryServer = createSharedMemory(tMultiplexedProcessor);
+        if(builder.meterRegistry != null){
+            Gauge.builder("thrift.server.inflight", inFlight, InFlightRequests::get)
+                    .description("requests read and not answered yet").register(builder.meterRegistry);
+            if(streamProcessor != null){
+                Gauge.builder("thrift.server.streams", streamProcessor, StreamProcessor::size)
+                        .description("streams going on").register(builder.meterRegistry);
+            }
+        }
+        if(netty()){
+            server = createNetty(tMultiplexedProcessor);
+            return server;
         }
+        //limits of the read buffers apply without properties too
+        ThriftServerProperties limits = builder.thriftServerProperties != null ?
+                builder.thriftServerProperties : new ThriftServerProperties();
         try {
-            TNonblockingServerTransport serverTransport = new TNonblockingServerSocket(builder.port);
-            TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(serverTransport);
-            int protocolIndex = 0;
+            TNonblockingServerTransport serverTransport = new FrameLimitedServerSocket(builder.port, limits.getMaxFrameSize());
+            ThriftSelectorServer.Args args = new ThriftSelectorServer.Args(serverTransport);
+            args.inFlight(inFlight);
+            //reads pause while the read buffers of all the connections hold this much
+            args.maxReadBufferBytes = maxReadBufferBytes(limits);
             if(builder.thriftServerProperties != null){
-                protocolIndex = builder.thriftServerProperties.getProtocol();
+                //dedicated pools, dispatched after the service name is read
+                Bulkheads bulkheads = Bulkheads.build(builder.thriftServerProperties.getBulkheads());
+                bulkheads.retain(builder.serviceNames());
+                args.bulkheads(bulkheads);
+                args.inlineMethods(inlineMethods(builder.thriftServerProperties.getInline()));
                 args.selectorThreads(builder.thriftServerProperties.getSelectorCount());
                 args.acceptQueueSizePerThread(builder.thriftServerProperties.getAcceptQueueSizePerThread());
-                if(builder.thriftServerProperties.getWorkerCount() != 0){
-                    args.executorService(Executors.newFixedThreadPool(builder.thriftServerProperties.getWorkerCount()));
-                }else{
-                    args.executorService(Executors.newCachedThreadPool());
-                }
+                args.executorService(workers(builder.thriftServerProperties));
             }else{
                 //set work thread as same as available processor
                 args.executorService(Executors.newFixedThreadPool(Runtime.getRuntime()
                         .availableProcessors()));
             }
             //set protocol
-            args.protocolFactory(ThriftServerProperties.PROFACT[protocolIndex]);
+            protocols(args, limits);
             //set processor
             args.processor(tMultiplexedProcessor);
             //NIO
             args.transportFactory(new TFramedTransport.Factory());
-            server = new TThreadedSelectorServer(args);
+            if(builder.meterRegistry != null){
+                //remember the size of the responses
+                args.outputTransportFactory(new MeteredFramedTransport.Factory());
+                long samplePeriodMillis = builder.thriftServerProperties != null ?
+                        builder.thriftServerProperties.getSamplePeriodMillis() : 5000;
+                args.metrics(new SelectorMetrics(builder.meterRegistry, samplePeriodMillis, args.maxReadBufferBytes));
+            }
+            server = new ThriftSelectorServer(args);
         } catch (TTransportException e) {
             logger.error("create thrift rpc server failed : " + e.getMessage());
         }finally {
@@ -145,25 +478,58 @@ public class DefaultTServerFactory implements TServerFactory, Server{
                 logger.info("Thrift server starts up on port : " + builder.port);
                 server.serve();
             });
+            sharedMemoryServer = sharedMemoryServer != null ? listen(sharedMemoryServer) : null;
+            if(sharedMemoryServer != null){
+                Thread thread = new Thread(sharedMemoryServer::serve, "thrift-shm-accept-" + builder.port);
+                thread.setDaemon(true);
+                thread.start();
+            }
             registerGuaranteed();
+            exposeLocally();
         }
     }
 
+    /**
+     * the requests read and not answered yet
+     * @return
+     */
+    public int inFlight(){
+        return inFlight.get();
+    }
+
+    /**
+     * stop in order: leave zookeeper, give the clients the grace period to notice,
+     * wait for the requests in flight, then stop the server
+     */
     @Override
     public void stop() {
-        if(this.server != null){
-            executor.submit(()-> {
+        if(!stopped.compareAndSet(false, true)){
+            return;
+        }
+        ThriftServerProperties properties = builder.thriftServerProperties != null ?
+                builder.thriftServerProperties : new ThriftServerProperties();
+        boolean deregistered = deregister();
+        try {
+            if(this.server != null){
+                if(deregistered && properties.getShutdownGraceMillis() > 0){
+                    Thread.sleep(properties.getShutdownGraceMillis());
+                }
+                if(!inFlight.await(properties.getDrainTimeoutMillis())){
+                    logger.warn(inFlight.get() + " requests still in flight after " + properties.getDrainTimeoutMillis() + "ms");
+                }
                 logger.info("Thrift server stops on port : " + builder.port);
-                server.stop();
-            });
+                stopServers();
+            }
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if(this.server != null){
+                stopServers();
+            }
         }
-        executor.shutdown();
         try {
             if(registry != null){
-                for (String path : pathSet){
-                    registry.unregister(path);
-                    pathSet.remove(path);
-                }
                 registry.shutdown();
             }
         } catch (IOException e) {
@@ -171,6 +537,46 @@ public class DefaultTServerFactory implements TServerFactory, Server{
         }
     }
 
+    /**
+     * listen before the registration, the clients reading it find the directory ready
+     * @param sharedMemoryServer
+     * @return null if it can't listen
+     */
+    private SharedMemoryTServer listen(SharedMemoryTServer sharedMemoryServer){
+        try {
+            sharedMemoryServer.transport().listen();
+            return sharedMemoryServer;
+        } catch (TTransportException e) {
+            logger.error("shared memory transport failed, the clients use the port : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void stopServers(){
+        server.stop();
+        if(sharedMemoryServer != null){
+            sharedMemoryServer.stop();
+        }
+        if(streamProcessor != null){
+            streamProcessor.close();
+        }
+    }
+
+    /**
+     * remove the nodes of the services, without registering them again, and stop the local calls
+     * @return true if there was one
+     */
+    private boolean deregister(){
+        localHandlers.forEach(LocalServices::unregister);
+        localHandlers.clear();
+        if(registry == null || registrations.isEmpty()){
+            return false;
+        }
+        registry.unregisterAll(registrations);
+        registrations.clear();
+        return true;
+    }
+
     public static class TServerBuilder{
 
         private ServerIpResolve serverIpResolve = new DefaultServerIpResolve();
@@ -179,15 +585,35 @@ public class DefaultTServerFactory implements TServerFactory, Server{
 
         private Map<String, TProcessor> processorMap = Maps.newConcurrentMap();
 
+        private Map<String, Object> asyncHandlerMap = Maps.newConcurrentMap();
+
         private CuratorFactory curatorFactory = null;
 
         private ThriftServerProperties thriftServerProperties;
 
+        private MeterRegistry meterRegistry;
+
         public TServerBuilder processorMap(Map<String, TProcessor> map){
             this.processorMap = map;
             return this;
         }
 
+        /**
+         * async handlers keyed by service name, each one implements ${serviceName}$AsyncIface
+         * @param map
+         * @return
+         */
+        public TServerBuilder asyncHandlerMap(Map<String, Object> map){
+            this.asyncHandlerMap = map;
+            return this;
+        }
+
+        Set<String> serviceNames(){
+            Set<String> names = Sets.newLinkedHashSet(processorMap.keySet());
+            names.addAll(asyncHandlerMap.keySet());
+            return names;
+        }
+
         public TServerBuilder port(Integer port){
             if(port != null){
                 this.port = port.intValue();
@@ -195,6 +621,18 @@ public class DefaultTServerFactory implements TServerFactory, Server{
             return this;
         }
 
+        /**
+         * the ip registered in zookeeper, the first site local address by default
+         * @param serverIpResolve
+         * @return
+         */
+        public TServerBuilder serverIpResolve(ServerIpResolve serverIpResolve){
+            if(serverIpResolve != null){
+                this.serverIpResolve = serverIpResolve;
+            }
+            return this;
+        }
+
         public TServerBuilder curatorFactory(CuratorFactory curatorFactory){
             if(curatorFactory != null){
                 this.curatorFactory = curatorFactory;
@@ -207,6 +645,17 @@ public class DefaultTServerFactory implements TServerFactory, Server{
             return this;
         }
 
+        /**
+         * record latency, calls, errors and payload sizes per method,
+         * pass the registry of spring boot actuator to expose them
+         * @param meterRegistry
+         * @return
+         */
+        public TServerBuilder meterRegistry(MeterRegistry meterRegistry){
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
         public DefaultTServerFactory build(){
             return new DefaultTServerFactory(this);
         }
@@ -0,0 +1,279 @@
+package com.louis.thrift.server;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.scheme.IScheme;
+
+import java.nio.ByteBuffer;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Protocol forwarding to another one which can be swapped,
+ * so that one instance per thread serves all the calls instead of one decorator per call
+ */
+abstract class ForwardingProtocol extends TProtocol {
+
+    protected TProtocol delegate;
+
+    protected ForwardingProtocol() {
+        super(null);
+    }
+
+    /**
+     * forward to the protocol until release() is called
+     * @param protocol
+     */
+    protected void attach(TProtocol protocol){
+        this.delegate = protocol;
+        this.trans_ = protocol.getTransport();
+    }
+
+    protected void release(){
+        this.delegate = null;
+        this.trans_ = null;
+    }
+
+    boolean isAttached(){
+        return delegate != null;
+    }
+
+    @Override
+    public void writeMessageBegin(TMessage message) throws TException {
+        delegate.writeMessageBegin(message);
+    }
+
+    @Override
+    public void writeMessageEnd() throws TException {
+        delegate.writeMessageEnd();
+    }
+
+    @Override
+    public void writeStructBegin(TStruct struct) throws TException {
+        delegate.writeStructBegin(struct);
+    }
+
+    @Override
+    public void writeStructEnd() throws TException {
+        delegate.writeStructEnd();
+    }
+
+    @Override
+    public void writeFieldBegin(TField field) throws TException {
+        delegate.writeFieldBegin(field);
+    }
+
+    @Override
+    public void writeFieldEnd() throws TException {
+        delegate.writeFieldEnd();
+    }
+
+    @Override
+    public void writeFieldStop() throws TException {
+        delegate.writeFieldStop();
+    }
+
+    @Override
+    public void writeMapBegin(TMap map) throws TException {
+        delegate.writeMapBegin(map);
+    }
+
+    @Override
+    public void writeMapEnd() throws TException {
+        delegate.writeMapEnd();
+    }
+
+    @Override
+    public void writeListBegin(TList list) throws TException {
+        delegate.writeListBegin(list);
+    }
+
+    @Override
+    public void writeListEnd() throws TException {
+        delegate.writeListEnd();
+    }
+
+    @Override
+    public void writeSetBegin(TSet set) throws TException {
+        delegate.writeSetBegin(set);
+    }
+
+    @Override
+    public void writeSetEnd() throws TException {
+        delegate.writeSetEnd();
+    }
+
+    @Override
+    public void writeBool(boolean b) throws TException {
+        delegate.writeBool(b);
+    }
+
+    @Override
+    public void writeByte(byte b) throws TException {
+        delegate.writeByte(b);
+    }
+
+    @Override
+    public void writeI16(short i16) throws TException {
+        delegate.writeI16(i16);
+    }
+
+    @Override
+    public void writeI32(int i32) throws TException {
+        delegate.writeI32(i32);
+    }
+
+    @Override
+    public void writeI64(long i64) throws TException {
+        delegate.writeI64(i64);
+    }
+
+    @Override
+    public void writeDouble(double dub) throws TException {
+        delegate.writeDouble(dub);
+    }
+
+    @Override
+    public void writeString(String str) throws TException {
+        delegate.writeString(str);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer buf) throws TException {
+        delegate.writeBinary(buf);
+    }
+
+    @Override
+    public TMessage readMessageBegin() throws TException {
+        return delegate.readMessageBegin();
+    }
+
+    @Override
+    public void readMessageEnd() throws TException {
+        delegate.readMessageEnd();
+    }
+
+    @Override
+    public TStruct readStructBegin() throws TException {
+        return delegate.readStructBegin();
+    }
+
+    @Override
+    public void readStructEnd() throws TException {
+        delegate.readStructEnd();
+    }
+
+    @Override
+    public TField readFieldBegin() throws TException {
+        return delegate.readFieldBegin();
+    }
+
+    @Override
+    public void readFieldEnd() throws TException {
+        delegate.readFieldEnd();
+    }
+
+    @Override
+    public TMap readMapBegin() throws TException {
+        return delegate.readMapBegin();
+    }
+
+    @Override
+    public void readMapEnd() throws TException {
+        delegate.readMapEnd();
+    }
+
+    @Override
+    public TList readListBegin() throws TException {
+        return delegate.readListBegin();
+    }
+
+    @Override
+    public void readListEnd() throws TException {
+        delegate.readListEnd();
+    }
+
+    @Override
+    public TSet readSetBegin() throws TException {
+        return delegate.readSetBegin();
+    }
+
+    @Override
+    public void readSetEnd() throws TException {
+        delegate.readSetEnd();
+    }
+
+    @Override
+    public boolean readBool() throws TException {
+        return delegate.readBool();
+    }
+
+    @Override
+    public byte readByte() throws TException {
+        return delegate.readByte();
+    }
+
+    @Override
+    public short readI16() throws TException {
+        return delegate.readI16();
+    }
+
+    @Override
+    public int readI32() throws TException {
+        return delegate.readI32();
+    }
+
+    @Override
+    public long readI64() throws TException {
+        return delegate.readI64();
+    }
+
+    @Override
+    public double readDouble() throws TException {
+        return delegate.readDouble();
+    }
+
+    @Override
+    public String readString() throws TException {
+        return delegate.readString();
+    }
+
+    @Override
+    public ByteBuffer readBinary() throws TException {
+        return delegate.readBinary();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Class<? extends IScheme> getScheme() {
+        return delegate.getScheme();
+    }
+}
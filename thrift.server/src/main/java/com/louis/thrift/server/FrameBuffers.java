@@ -0,0 +1,102 @@
+package com.louis.thrift.server;
+
+import com.louis.thrift.protocol.ProtocolType;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.AbstractNonblockingServer.FrameBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Peek into the frame read by the selector threads before it is dispatched.
+ * The frame of a FrameBuffer is not exposed by libthrift, so it is read by reflection
+ */
+final class FrameBuffers {
+
+    /**
+     * the frame buffer keeps the 4 bytes frame size in front of the message
+     */
+    static final int FRAME_HEADER_SIZE = 4;
+
+    private static final Field BUFFER = field("buffer_");
+
+    private FrameBuffers(){
+
+    }
+
+    private static Field field(String name){
+        try {
+            Field field = FrameBuffer.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("unsupported thrift version : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * the frame read so far, including the frame size
+     * @param frameBuffer
+     * @return
+     */
+    static byte[] frame(FrameBuffer frameBuffer){
+        try {
+            return ((ByteBuffer) BUFFER.get(frameBuffer)).array();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * read the message header of a fully read frame, in the protocol its first byte tells
+     * @param frameBuffer
+     * @param protocolFactory for the messages starting with none of the known protocols
+     * @return null if the header can't be read
+     */
+    static TMessage peekMessage(FrameBuffer frameBuffer, TProtocolFactory protocolFactory){
+        byte[] frame = frame(frameBuffer);
+        ProtocolType type = frame.length > FRAME_HEADER_SIZE ? ProtocolType.detect(frame[FRAME_HEADER_SIZE]) : null;
+        try {
+            return (type != null ? type.factory() : protocolFactory).getProtocol(new TMemoryInputTransport(frame, FRAME_HEADER_SIZE,
+                    frame.length - FRAME_HEADER_SIZE)).readMessageBegin();
+        } catch (TException e) {
+            return null;
+        }
+    }
+
+    /**
+     * the service name a multiplexed message is sent to
+     * @param message
+     * @return null for a message without service name
+     */
+    static String serviceName(TMessage message){
+        if(message == null || message.name.indexOf(TMultiplexedProtocol.SEPARATOR) < 0){
+            return null;
+        }
+        return StringUtils.substringBefore(message.name, TMultiplexedProtocol.SEPARATOR);
+    }
+}
@@ -0,0 +1,84 @@
+package com.louis.thrift.server;
+
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * TNonblockingServerSocket closing the connections announcing a frame larger than maxFrameSize,
+ * before the selector server allocates its read buffer
+ */
+public class FrameLimitedServerSocket extends TNonblockingServerSocket {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameLimitedServerSocket.class);
+
+    private final int maxFrameSize;
+
+    public FrameLimitedServerSocket(int port, int maxFrameSize) throws TTransportException {
+        super(port);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    protected TNonblockingSocket acceptImpl() throws TTransportException {
+        TNonblockingSocket accepted = super.acceptImpl();
+        if(accepted == null){
+            return null;
+        }
+        try {
+            return new FrameLimitedSocket(accepted.getSocketChannel(), maxFrameSize);
+        } catch (IOException e) {
+            accepted.close();
+            throw new TTransportException(e);
+        }
+    }
+
+    private static class FrameLimitedSocket extends TNonblockingSocket {
+
+        private final int maxFrameSize;
+
+        FrameLimitedSocket(SocketChannel socketChannel, int maxFrameSize) throws IOException {
+            super(socketChannel);
+            this.maxFrameSize = maxFrameSize;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            int read = super.read(buffer);
+            //the frame buffer reads the size of the next frame into a buffer of 4 bytes
+            if(buffer.capacity() == 4 && !buffer.hasRemaining()){
+                int frameSize = buffer.getInt(0);
+                if(frameSize > maxFrameSize){
+                    logger.warn("frame larger than " + maxFrameSize + " bytes from " + getSocketChannel().socket().getRemoteSocketAddress() + ", connection closed");
+                    throw new IOException("frame of " + frameSize + " bytes is larger than " + maxFrameSize);
+                }
+            }
+            return read;
+        }
+    }
+}
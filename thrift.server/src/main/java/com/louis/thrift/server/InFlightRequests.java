@@ -0,0 +1,72 @@
+package com.louis.thrift.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Requests read by the server and not answered yet, drained before the server stops
+ */
+class InFlightRequests {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * only a drain waits for the count to reach 0
+     */
+    private volatile boolean draining;
+
+    void begin(){
+        count.incrementAndGet();
+    }
+
+    void end(){
+        if(count.decrementAndGet() == 0 && draining){
+            synchronized (this){
+                notifyAll();
+            }
+        }
+    }
+
+    int get(){
+        return count.get();
+    }
+
+    /**
+     * wait for the requests in flight to be answered
+     * @param timeoutMillis
+     * @return false if some are still in flight after the timeout
+     */
+    boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        draining = true;
+        synchronized (this){
+            while (count.get() > 0){
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0){
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+}
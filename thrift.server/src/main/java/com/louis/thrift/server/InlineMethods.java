@@ -0,0 +1,117 @@
+package com.louis.thrift.server;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Methods cheap enough to run on the selector thread, skipping the hand-off to the workers.
+ * A method which keeps running longer than the threshold is demoted back to the workers,
+ * since every connection of the selector waits for it. The violations are counted in windows of time,
+ * a method slow once in a while stays inline
+ */
+public class InlineMethods {
+
+    private final Logger logger = LoggerFactory.getLogger(InlineMethods.class);
+
+    private final Set<String> methods = Sets.newConcurrentHashSet();
+
+    private final Map<String, Violations> violations = Maps.newConcurrentMap();
+
+    private final long thresholdNanos;
+
+    private final int maxViolations;
+
+    private final long windowNanos;
+
+    /**
+     * @param thresholdMicros a call running longer than it is a violation
+     * @param maxViolations a method is demoted once it has so many violations within a window
+     * @param windowMillis
+     */
+    public InlineMethods(long thresholdMicros, int maxViolations, long windowMillis) {
+        this.thresholdNanos = TimeUnit.MICROSECONDS.toNanos(thresholdMicros);
+        this.maxViolations = Math.max(1, maxViolations);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+    }
+
+    /**
+     * @param method multiplexed method name, like ${serviceName}:${methodName}
+     */
+    public void add(String method){
+        methods.add(method);
+        violations.put(method, new Violations());
+    }
+
+    public boolean isEmpty(){
+        return methods.isEmpty();
+    }
+
+    public boolean contains(String method){
+        return methods.contains(method);
+    }
+
+    /**
+     * record the time a call took on the selector thread
+     * @param method
+     * @param nanos
+     */
+    public void record(String method, long nanos){
+        if(nanos <= thresholdNanos){
+            return;
+        }
+        Violations count = violations.get(method);
+        if(count != null && count.add(System.nanoTime(), windowNanos) >= maxViolations && methods.remove(method)){
+            logger.warn(method + " took " + TimeUnit.NANOSECONDS.toMicros(nanos) + "us on the selector thread, "
+                    + "demoted to the worker threads after " + maxViolations + " slow calls within "
+                    + TimeUnit.NANOSECONDS.toMillis(windowNanos) + "ms");
+        }
+    }
+
+    /**
+     * violations of a method in the current window, only the slow calls touch it
+     */
+    private static class Violations {
+
+        private long windowStart;
+
+        private int count;
+
+        /**
+         * @param now
+         * @param windowNanos
+         * @return violations in the window, this one included
+         */
+        synchronized int add(long now, long windowNanos){
+            if(count == 0 || now - windowStart > windowNanos){
+                windowStart = now;
+                count = 0;
+            }
+            return ++count;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.louis.thrift.server;
+
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TTransportFactory;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * TFramedTransport remembering the size of the last frame it has written
+ */
+public class MeteredFramedTransport extends TFramedTransport {
+
+    private int written;
+
+    private int lastFrameSize = -1;
+
+    public MeteredFramedTransport(TTransport transport) {
+        super(transport);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+        super.write(buf, off, len);
+        written += len;
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        lastFrameSize = written;
+        written = 0;
+        super.flush();
+    }
+
+    /**
+     * @return size of the last frame flushed, -1 if nothing was flushed yet
+     */
+    public int lastFrameSize() {
+        return lastFrameSize;
+    }
+
+    public static class Factory extends TTransportFactory {
+
+        @Override
+        public TTransport getTransport(TTransport base) {
+            return new MeteredFramedTransport(base);
+        }
+    }
+}
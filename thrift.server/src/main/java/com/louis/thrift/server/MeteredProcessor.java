@@ -0,0 +1,165 @@
+package com.louis.thrift.server;
+
+import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.thrift.TBaseProcessor;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+
+import java.util.Map;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Decorate the processor of a service to record latency, calls, errors and payload sizes per method.
+ * The protocols handed to the processor are kept per thread, nothing is allocated per call
+ */
+public class MeteredProcessor implements TProcessor {
+
+    private static final String UNKNOWN = "unknown";
+
+    private static final ThreadLocal<Call> CALLS = ThreadLocal.withInitial(Call::new);
+
+    private final String service;
+
+    private final TProcessor processor;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, MethodMetrics> methods = Maps.newConcurrentMap();
+
+    private final MethodMetrics unknown;
+
+    /**
+     * whether all the methods are known, so that unknown method names can't add meters
+     */
+    private final boolean generated;
+
+    public MeteredProcessor(String service, TProcessor processor, MeterRegistry registry) {
+        this.service = service;
+        this.processor = processor;
+        this.registry = registry;
+        this.generated = processor instanceof TBaseProcessor;
+        if(generated){
+            for (String method : ((TBaseProcessor<?>) processor).getProcessMapView().keySet()){
+                methods.put(method, new MethodMetrics(registry, service, method));
+            }
+        }
+        this.unknown = generated ? new MethodMetrics(registry, service, UNKNOWN) : null;
+    }
+
+    public MethodMetrics metrics(String method){
+        MethodMetrics metrics = methods.get(method);
+        if(metrics != null){
+            return metrics;
+        }
+        return generated ? unknown : methods.computeIfAbsent(method, name -> new MethodMetrics(registry, service, name));
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        MethodMetrics metrics = metrics(message.name);
+        long requestBytes = frameSize(in.getTransport());
+        Call call = CALLS.get();
+        if(call.isBusy()){
+            //reentered by a nested processor
+            call = new Call();
+        }
+        call.attach(in, message, out);
+        boolean error = true;
+        long start = System.nanoTime();
+        try {
+            error = !processor.process(call.in, call.out) || call.out.type == TMessageType.EXCEPTION;
+            return !error;
+        }finally {
+            long responseBytes = call.out.type >= 0 ? lastFrameSize(out.getTransport()) : -1;
+            metrics.record(System.nanoTime() - start, requestBytes, responseBytes, error);
+            call.release();
+        }
+    }
+
+    static long frameSize(TTransport transport){
+        int remaining = transport.getBytesRemainingInBuffer();
+        return remaining < 0 ? -1 : transport.getBufferPosition() + remaining;
+    }
+
+    static long lastFrameSize(TTransport transport){
+        return transport instanceof MeteredFramedTransport ? ((MeteredFramedTransport) transport).lastFrameSize() : -1;
+    }
+
+    /**
+     * protocols of the call running on the thread
+     */
+    private static class Call {
+
+        private final MessageReplay in = new MessageReplay();
+
+        private final ReplyTracking out = new ReplyTracking();
+
+        boolean isBusy(){
+            return in.isAttached();
+        }
+
+        void attach(TProtocol in, TMessage message, TProtocol out){
+            this.in.attach(in);
+            this.in.message = message;
+            this.out.attach(out);
+            this.out.type = -1;
+        }
+
+        void release(){
+            in.release();
+            in.message = null;
+            out.release();
+        }
+    }
+
+    /**
+     * give back the message header which has been read
+     */
+    private static class MessageReplay extends ForwardingProtocol {
+
+        private TMessage message;
+
+        @Override
+        public TMessage readMessageBegin() {
+            return message;
+        }
+    }
+
+    /**
+     * remember the type of the reply
+     */
+    private static class ReplyTracking extends ForwardingProtocol {
+
+        private byte type = -1;
+
+        @Override
+        public void writeMessageBegin(TMessage message) throws TException {
+            type = message.type;
+            delegate.writeMessageBegin(message);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.louis.thrift.server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Meters of one method of a service, registered once so that recording a call allocates nothing.
+ * Latency percentiles are kept by the HdrHistogram based histograms of micrometer
+ */
+public class MethodMetrics {
+
+    private final Timer latency;
+
+    private final Counter errors;
+
+    private final DistributionSummary requestSize;
+
+    private final DistributionSummary responseSize;
+
+    public MethodMetrics(MeterRegistry registry, String service, String method) {
+        this.latency = Timer.builder("thrift.server.requests")
+                .description("latency of the calls handled by the server")
+                .tags("service", service, "method", method)
+                .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                .register(registry);
+        this.errors = Counter.builder("thrift.server.errors")
+                .description("calls failed or answered with an exception")
+                .tags("service", service, "method", method)
+                .register(registry);
+        this.requestSize = DistributionSummary.builder("thrift.server.request.size")
+                .baseUnit("bytes")
+                .tags("service", service, "method", method)
+                .register(registry);
+        this.responseSize = DistributionSummary.builder("thrift.server.response.size")
+                .baseUnit("bytes")
+                .tags("service", service, "method", method)
+                .register(registry);
+    }
+
+    /**
+     * @param nanos time the call took
+     * @param requestBytes -1 if unknown
+     * @param responseBytes -1 if unknown
+     * @param error
+     */
+    public void record(long nanos, long requestBytes, long responseBytes, boolean error){
+        latency.record(nanos, TimeUnit.NANOSECONDS);
+        if(error){
+            errors.increment();
+        }
+        if(requestBytes >= 0){
+            requestSize.record(requestBytes);
+        }
+        if(responseBytes >= 0){
+            responseSize.record(responseBytes);
+        }
+    }
+}
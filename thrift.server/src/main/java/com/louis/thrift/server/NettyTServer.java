@@ -0,0 +1,380 @@
+package com.louis.thrift.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Framed thrift server on netty, using the native epoll transport when it is available and pooled direct buffers.
+ * Frames of a connection are processed one after the other in the workers, like TThreadedSelectorServer does,
+ * a connection pipelining its calls stops being read until the frames in hand are answered.
+ * The frames in process share a budget of bytes, the connections stop being read while it is used up
+ */
+public class NettyTServer extends TServer {
+
+    private final Logger logger = LoggerFactory.getLogger(NettyTServer.class);
+
+    private final Args args;
+
+    private final TProcessor processor;
+
+    private final ExecutorService workers;
+
+    private final ReadBudget readBudget;
+
+    private final InFlightRequests inFlight;
+
+    private volatile Channel channel;
+
+    private volatile boolean stopped;
+
+    public NettyTServer(Args args) {
+        super(args);
+        this.args = args;
+        this.processor = processorFactory_.getProcessor(null);
+        this.workers = args.executorService != null ? args.executorService
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.inFlight = args.inFlight;
+        this.readBudget = new ReadBudget(Math.max(args.maxReadBufferBytes, args.maxFrameSize));
+    }
+
+    ReadBudget readBudget() {
+        return readBudget;
+    }
+
+    private static ThreadFactory threadFactory(String nameFormat){
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    @Override
+    public void serve() {
+        boolean epoll = Epoll.isAvailable();
+        EventLoopGroup boss = epoll ? new EpollEventLoopGroup(1, threadFactory("thrift-netty-boss-%d"))
+                : new NioEventLoopGroup(1, threadFactory("thrift-netty-boss-%d"));
+        EventLoopGroup io = epoll ? new EpollEventLoopGroup(args.ioThreads, threadFactory("thrift-netty-io-%d"))
+                : new NioEventLoopGroup(args.ioThreads, threadFactory("thrift-netty-io-%d"));
+        try {
+            ServerBootstrap bootstrap = new ServerBootstrap()
+                    .group(boss, io)
+                    .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                    .option(ChannelOption.SO_BACKLOG, args.backlog)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new FrameHandler());
+                        }
+                    });
+            channel = bootstrap.bind(args.port).sync().channel();
+            logger.info("netty server listening on port " + args.port + " with the " + (epoll ? "epoll" : "nio") + " transport");
+            if(stopped){
+                channel.close();
+            }
+            setServing(true);
+            channel.closeFuture().syncUninterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("netty server failed : " + e.getMessage());
+        } finally {
+            setServing(false);
+            boss.shutdownGracefully();
+            io.shutdownGracefully();
+            workers.shutdown();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        Channel channel = this.channel;
+        if(channel != null){
+            channel.close();
+        }
+    }
+
+    /**
+     * state of one connection, only touched by its event loop except while a frame is processed.
+     * The bytes of a frame are reserved in the read budget as soon as its size is read, before its body is buffered
+     */
+    private class FrameHandler extends ByteToMessageDecoder {
+
+        private final ByteBufTransport transport = new ByteBufTransport();
+
+        private final TProtocol in = inputProtocolFactory_.getProtocol(transport);
+
+        private final TProtocol out = outputProtocolFactory_.getProtocol(transport);
+
+        private final Deque<ByteBuf> pending = new ArrayDeque<>();
+
+        private boolean busy;
+
+        /**
+         * bytes reserved for the frame being read, -1 until its size is read
+         */
+        private int frameSize = -1;
+
+        /**
+         * the size of the next frame is read, reading stops until the budget has room for it
+         */
+        private boolean awaitingBudget;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            while (!awaitingBudget){
+                if(frameSize < 0){
+                    if(in.readableBytes() < 4){
+                        return;
+                    }
+                    int size = in.getInt(in.readerIndex());
+                    if(size < 0 || size > args.maxFrameSize){
+                        throw new TooLongFrameException("frame of " + size + " bytes");
+                    }
+                    if(!readBudget.tryAcquire(size)){
+                        //budget used up, stop reading until the frames of the other connections are done
+                        awaitingBudget = true;
+                        ctx.channel().config().setAutoRead(false);
+                        readBudget.await(size, () -> ctx.channel().eventLoop().execute(() -> budgetAvailable(ctx)));
+                        return;
+                    }
+                    in.skipBytes(4);
+                    frameSize = size;
+                }
+                if(in.readableBytes() < frameSize){
+                    return;
+                }
+                ByteBuf frame = in.readRetainedSlice(frameSize);
+                frameSize = -1;
+                received(ctx, frame);
+            }
+        }
+
+        private void budgetAvailable(ChannelHandlerContext ctx){
+            if(!awaitingBudget || !ctx.channel().isActive()){
+                return;
+            }
+            awaitingBudget = false;
+            try {
+                //decode the bytes buffered already
+                channelRead(ctx, Unpooled.EMPTY_BUFFER);
+            }catch (Exception e){
+                exceptionCaught(ctx, e);
+                return;
+            }
+            resume(ctx);
+        }
+
+        private void received(ChannelHandlerContext ctx, ByteBuf frame) {
+            if(busy || !pending.isEmpty()){
+                //pipelined by the client, stop reading until the frames in hand are answered
+                pending.add(frame);
+                ctx.channel().config().setAutoRead(false);
+                return;
+            }
+            dispatch(ctx, frame);
+        }
+
+        private void dispatch(ChannelHandlerContext ctx, ByteBuf frame){
+            int size = frame.readableBytes();
+            busy = true;
+            if(inFlight != null){
+                inFlight.begin();
+            }
+            try {
+                workers.execute(() -> process(ctx, frame, size));
+            }catch (RejectedExecutionException e){
+                logger.warn("workers are saturated, connection closed");
+                frame.release();
+                readBudget.release(size);
+                if(inFlight != null){
+                    inFlight.end();
+                }
+                ctx.close();
+            }
+        }
+
+        private void process(ChannelHandlerContext ctx, ByteBuf frame, int size){
+            ByteBuf response = ctx.alloc().buffer();
+            //room for the frame size
+            response.writeInt(0);
+            try {
+                transport.wrap(frame, response);
+                in.reset();
+                out.reset();
+                processor.process(in, out);
+            }catch (TException | RuntimeException e){
+                logger.error("process frame failed : " + e.getMessage());
+                response.release();
+                response = null;
+            }finally {
+                transport.wrap(null, null);
+                frame.release();
+                readBudget.release(size);
+            }
+            ByteBuf reply = response;
+            //a single task on the event loop to send the response and go on with the connection
+            ctx.channel().eventLoop().execute(() -> completed(ctx, reply));
+        }
+
+        private void completed(ChannelHandlerContext ctx, ByteBuf response){
+            if(response == null){
+                ctx.close();
+            }else if(response.readableBytes() > 4){
+                response.setInt(0, response.readableBytes() - 4);
+                ctx.writeAndFlush(response, ctx.voidPromise());
+            }else{
+                //oneway
+                response.release();
+            }
+            if(inFlight != null){
+                inFlight.end();
+            }
+            busy = false;
+            resume(ctx);
+        }
+
+        private void resume(ChannelHandlerContext ctx){
+            if(busy){
+                return;
+            }
+            ByteBuf frame = pending.poll();
+            if(frame != null){
+                dispatch(ctx, frame);
+            }else if(!awaitingBudget && ctx.channel().isActive() && !ctx.channel().config().isAutoRead()){
+                ctx.channel().config().setAutoRead(true);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            ByteBuf frame;
+            while ((frame = pending.poll()) != null){
+                readBudget.release(frame.readableBytes());
+                frame.release();
+            }
+            if(frameSize >= 0){
+                readBudget.release(frameSize);
+                frameSize = -1;
+            }
+            //nothing more is decoded
+            awaitingBudget = true;
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if(cause instanceof TooLongFrameException){
+                logger.warn("frame larger than " + args.maxFrameSize + " bytes from " + ctx.channel().remoteAddress() + ", connection closed");
+            }else{
+                logger.debug("connection failed : " + cause.getMessage());
+            }
+            ctx.close();
+        }
+    }
+
+    public static class Args extends AbstractServerArgs<Args> {
+
+        private final int port;
+
+        private int ioThreads = 2;
+
+        private int backlog = 1024;
+
+        private int maxFrameSize = 16384000;
+
+        private long maxReadBufferBytes = Runtime.getRuntime().maxMemory() / 4;
+
+        private ExecutorService executorService;
+
+        private InFlightRequests inFlight;
+
+        public Args(int port) {
+            //netty binds the port itself
+            super(null);
+            this.port = port;
+        }
+
+        public Args ioThreads(int ioThreads){
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Args backlog(int backlog){
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Args maxFrameSize(int maxFrameSize){
+            this.maxFrameSize = maxFrameSize;
+            return this;
+        }
+
+        /**
+         * bytes the frames in process may hold over all the connections, at least maxFrameSize
+         * @param maxReadBufferBytes
+         * @return
+         */
+        public Args maxReadBufferBytes(long maxReadBufferBytes){
+            this.maxReadBufferBytes = maxReadBufferBytes;
+            return this;
+        }
+
+        public Args executorService(ExecutorService executorService){
+            this.executorService = executorService;
+            return this;
+        }
+
+        Args inFlight(InFlightRequests inFlight){
+            this.inFlight = inFlight;
+            return this;
+        }
+    }
+}
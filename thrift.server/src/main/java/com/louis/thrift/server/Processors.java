@@ -0,0 +1,63 @@
+package com.louis.thrift.server;
+
+import org.apache.thrift.TBaseProcessor;
+import org.apache.thrift.TProcessor;
+
+import java.lang.reflect.Field;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Look into the generated processors
+ */
+final class Processors {
+
+    private static final Field IFACE = field();
+
+    private Processors(){
+
+    }
+
+    private static Field field(){
+        try {
+            Field field = TBaseProcessor.class.getDeclaredField("iface");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    /**
+     * the handler behind a generated processor
+     * @param processor
+     * @return null if it is not a generated processor
+     */
+    static Object handlerOf(TProcessor processor){
+        if(IFACE == null || !(processor instanceof TBaseProcessor)){
+            return null;
+        }
+        try {
+            return IFACE.get(processor);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.louis.thrift.server;
+
+import com.louis.thrift.protocol.ProtocolType;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.scheme.IScheme;
+import org.apache.thrift.scheme.StandardScheme;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * The protocol of a connection told by the first byte of its first message, compact, binary or json.
+ * The output protocol answers in the protocol of the input protocol created right before it on the same thread,
+ * as the servers create the two protocols of a connection together. The fallback is used for the messages
+ * starting with none of them, like the ones of the non strict binary protocol
+ */
+class ProtocolDetection {
+
+    private final ProtocolType fallback;
+
+    /**
+     * the input protocol created last on the thread, waiting for its output protocol
+     */
+    private final ThreadLocal<Detected> created = new ThreadLocal<>();
+
+    private final TProtocolFactory input = new Input();
+
+    private final TProtocolFactory output = this::output;
+
+    ProtocolDetection(ProtocolType fallback) {
+        this.fallback = fallback;
+    }
+
+    TProtocolFactory input() {
+        return input;
+    }
+
+    TProtocolFactory output() {
+        return output;
+    }
+
+    /**
+     * @param protocol an output protocol of a server
+     * @return the protocol it writes, null if it is none of the known ones
+     */
+    static ProtocolType typeOf(TProtocol protocol){
+        if(protocol instanceof Mirror){
+            return ((Mirror) protocol).type();
+        }
+        if(protocol.getClass() == TCompactProtocol.class){
+            return ProtocolType.COMPACT;
+        }
+        if(protocol.getClass() == TBinaryProtocol.class){
+            return ProtocolType.BINARY;
+        }
+        if(protocol.getClass() == TJSONProtocol.class){
+            return ProtocolType.JSON;
+        }
+        return null;
+    }
+
+    /**
+     * @param factory an input protocol factory of a server
+     * @return the factory of the fallback protocol for a detecting factory, else the factory itself
+     */
+    static TProtocolFactory fallbackOf(TProtocolFactory factory){
+        return factory instanceof Input ? ((Input) factory).fallback().factory() : factory;
+    }
+
+    private TProtocol input(TTransport transport){
+        Detected detected = new Detected(transport);
+        created.set(detected);
+        return detected;
+    }
+
+    private TProtocol output(TTransport transport){
+        Detected input = created.get();
+        created.remove();
+        return new Mirror(transport, input);
+    }
+
+    /**
+     * creates the detecting input protocols, tells the fallback to the ones peeking without a connection
+     */
+    private class Input implements TProtocolFactory {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public TProtocol getProtocol(TTransport transport) {
+            return input(transport);
+        }
+
+        ProtocolType fallback(){
+            return fallback;
+        }
+    }
+
+    /**
+     * the input protocol of a connection, forwarding to the detected one from its first message
+     */
+    private class Detected extends ForwardingProtocol {
+
+        private volatile ProtocolType type;
+
+        Detected(TTransport transport) {
+            this.trans_ = transport;
+        }
+
+        @Override
+        public TMessage readMessageBegin() throws TException {
+            if(delegate == null){
+                TTransport transport = getTransport();
+                byte first;
+                if(transport.getBytesRemainingInBuffer() > 0){
+                    first = transport.getBuffer()[transport.getBufferPosition()];
+                }else{
+                    byte[] buffer = new byte[1];
+                    transport.readAll(buffer, 0, 1);
+                    first = buffer[0];
+                    transport = new Pushback(transport, first);
+                }
+                ProtocolType detected = ProtocolType.detect(first);
+                type = detected != null ? detected : fallback;
+                delegate = type.factory().getProtocol(transport);
+            }
+            return delegate.readMessageBegin();
+        }
+
+        @Override
+        public void reset() {
+            if(delegate != null){
+                delegate.reset();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Class<? extends IScheme> getScheme() {
+            return delegate != null ? delegate.getScheme() : StandardScheme.class;
+        }
+    }
+
+    /**
+     * the output protocol of a connection, in the protocol of its input
+     */
+    private class Mirror extends ForwardingProtocol {
+
+        private final Detected input;
+
+        Mirror(TTransport transport, Detected input) {
+            this.trans_ = transport;
+            this.input = input;
+        }
+
+        @Override
+        public void writeMessageBegin(TMessage message) throws TException {
+            if(delegate == null){
+                delegate = type().factory().getProtocol(getTransport());
+            }
+            delegate.writeMessageBegin(message);
+        }
+
+        ProtocolType type(){
+            return input != null && input.type != null ? input.type : fallback;
+        }
+
+        @Override
+        public void reset() {
+            if(delegate != null){
+                delegate.reset();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Class<? extends IScheme> getScheme() {
+            return delegate != null ? delegate.getScheme() : StandardScheme.class;
+        }
+    }
+
+    /**
+     * the transport of a connection without a buffer to look into, the first byte read is read again
+     */
+    private static class Pushback extends TTransport {
+
+        private final TTransport transport;
+
+        private final byte first;
+
+        private boolean pending = true;
+
+        Pushback(TTransport transport, byte first) {
+            this.transport = transport;
+            this.first = first;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return transport.isOpen();
+        }
+
+        @Override
+        public boolean peek() {
+            return pending || transport.peek();
+        }
+
+        @Override
+        public void open() throws TTransportException {
+            transport.open();
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws TTransportException {
+            if(len <= 0){
+                return 0;
+            }
+            if(pending){
+                pending = false;
+                buf[off] = first;
+                return 1;
+            }
+            return transport.read(buf, off, len);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws TTransportException {
+            transport.write(buf, off, len);
+        }
+
+        @Override
+        public void flush() throws TTransportException {
+            transport.flush();
+        }
+
+        @Override
+        public byte[] getBuffer() {
+            return pending ? null : transport.getBuffer();
+        }
+
+        @Override
+        public int getBufferPosition() {
+            return pending ? 0 : transport.getBufferPosition();
+        }
+
+        @Override
+        public int getBytesRemainingInBuffer() {
+            return pending ? -1 : transport.getBytesRemainingInBuffer();
+        }
+
+        @Override
+        public void consumeBuffer(int len) {
+            transport.consumeBuffer(len);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.louis.thrift.server;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Bytes the frames of all the connections may hold while they are processed.
+ * A connection which cannot reserve its frame stops reading and is resumed when bytes are released
+ */
+class ReadBudget {
+
+    private final long maxBytes;
+
+    private final AtomicLong used = new AtomicLong();
+
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    ReadBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param bytes
+     * @return false if the budget is used up
+     */
+    boolean tryAcquire(int bytes){
+        while (true){
+            long current = used.get();
+            if(current + bytes > maxBytes){
+                return false;
+            }
+            if(used.compareAndSet(current, current + bytes)){
+                return true;
+            }
+        }
+    }
+
+    void release(int bytes){
+        used.addAndGet(-bytes);
+        resume();
+    }
+
+    /**
+     * run once bytes are released
+     * @param bytes needed by the waiter
+     * @param resume
+     */
+    void await(int bytes, Runnable resume){
+        waiting.add(resume);
+        //released before the waiter was queued
+        if(used.get() + bytes <= maxBytes){
+            resume();
+        }
+    }
+
+    private void resume(){
+        Runnable resume;
+        while ((resume = waiting.poll()) != null){
+            resume.run();
+        }
+    }
+
+    long used(){
+        return used.get();
+    }
+
+    long maxBytes(){
+        return maxBytes;
+    }
+
+    /**
+     * @return used over max bytes, 1 means the reads are paused
+     */
+    double utilization(){
+        return (double) used.get() / maxBytes;
+    }
+
+    void bindTo(MeterRegistry registry){
+        Gauge.builder("thrift.server.read.buffer.bytes", this, ReadBudget::used)
+                .description("bytes held by the frames of all the connections")
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("thrift.server.read.buffer.utilization", this, ReadBudget::utilization)
+                .description("read buffer bytes over thrift.maxReadBufferBytes, 1 means the reads are paused")
+                .register(registry);
+    }
+}
@@ -0,0 +1,144 @@
+package com.louis.thrift.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.louis.thrift.protocol.ProtocolType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Serialized responses of the cached methods of all the services, keyed on the serialized arguments of their call.
+ * The entries are weighed by their bytes so that the cache stays below its max bytes,
+ * each one expires after the ttl of its method
+ */
+class ResponseCache {
+
+    /**
+     * bytes of an entry besides its arrays
+     */
+    private static final int OVERHEAD = 96;
+
+    private final Cache<Key, Entry> entries;
+
+    /**
+     * @param maxBytes
+     * @param maxTtlMillis the longest ttl of the methods, the entries are dropped after it whatever their ttl
+     */
+    ResponseCache(long maxBytes, long maxTtlMillis) {
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Entry entry) -> OVERHEAD + key.args.length + entry.body.length)
+                .expireAfterWrite(maxTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @param key
+     * @return the body of the response, null if there is none or it is expired
+     */
+    byte[] get(Key key){
+        Entry entry = entries.getIfPresent(key);
+        if(entry == null){
+            return null;
+        }
+        if(entry.expiresAt - System.nanoTime() <= 0){
+            entries.asMap().remove(key, entry);
+            return null;
+        }
+        return entry.body;
+    }
+
+    void put(Key key, byte[] body, long ttlNanos){
+        entries.put(key, new Entry(body, System.nanoTime() + ttlNanos));
+    }
+
+    long size(){
+        return entries.size();
+    }
+
+    void bindTo(MeterRegistry registry){
+        Gauge.builder("thrift.server.response.cache.size", this, ResponseCache::size)
+                .description("responses held by the cache").register(registry);
+    }
+
+    /**
+     * a call of a method: its arguments in the protocol of the connection, which the response is written in as well,
+     * or transcoded to the compact protocol when the transport has no buffer to take them from
+     */
+    static class Key {
+
+        private final String service;
+
+        private final String method;
+
+        private final ProtocolType protocol;
+
+        private final boolean transcoded;
+
+        private final byte[] args;
+
+        private final int hash;
+
+        Key(String service, String method, ProtocolType protocol, boolean transcoded, byte[] args) {
+            this.service = service;
+            this.method = method;
+            this.protocol = protocol;
+            this.transcoded = transcoded;
+            this.args = args;
+            this.hash = 31 * (31 * (31 * service.hashCode() + method.hashCode()) + protocol.hashCode() + (transcoded ? 1 : 0))
+                    + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && protocol == key.protocol && transcoded == key.transcoded
+                    && method.equals(key.method) && service.equals(key.service) && Arrays.equals(args, key.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+
+        private final byte[] body;
+
+        private final long expiresAt;
+
+        Entry(byte[] body, long expiresAt) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
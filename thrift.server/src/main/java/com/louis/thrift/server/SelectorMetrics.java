@@ -0,0 +1,302 @@
+package com.louis.thrift.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.AbstractNonblockingServer;
+import org.apache.thrift.server.ServerContext;
+import org.apache.thrift.server.TServerEventHandler;
+import org.apache.thrift.transport.TTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Internals of the selector server: accept queues, connections and cpu usage of the selector threads,
+ * bytes held by read buffers, and the queue of the workers.
+ * The internals are sampled periodically on one thread, the gauges only read the last sample.
+ * The connections are counted as the selector threads open and close them, see {@link #connections}
+ */
+public class SelectorMetrics {
+
+    private final Logger logger = LoggerFactory.getLogger(SelectorMetrics.class);
+
+    private static final Field ACCEPTED_QUEUE = field("org.apache.thrift.server.TThreadedSelectorServer$SelectorThread", "acceptedQueue");
+
+    private static final Field READ_BUFFER_BYTES = field(AbstractNonblockingServer.class.getName(), "readBufferBytesAllocated");
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final MeterRegistry registry;
+
+    private final long periodMillis;
+
+    private final Timer dispatch;
+
+    private final Timer workerWait;
+
+    private final AtomicLong readBufferBytes = new AtomicLong();
+
+    private final AtomicLong workerQueue = new AtomicLong();
+
+    private final List<SelectorSample> selectors = new ArrayList<>();
+
+    /**
+     * the sample of each selector thread, for the connections it opens
+     */
+    private final Map<Thread, SelectorSample> samples = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService sampler;
+
+    private AbstractNonblockingServer server;
+
+    private ExecutorService workers;
+
+    /**
+     * @param registry
+     * @param periodMillis
+     * @param maxReadBufferBytes budget of the read buffers, for their utilization
+     */
+    public SelectorMetrics(MeterRegistry registry, long periodMillis, long maxReadBufferBytes) {
+        this.registry = registry;
+        this.periodMillis = periodMillis;
+        this.dispatch = Timer.builder("thrift.server.selector.dispatch")
+                .description("time a selector thread spends dispatching a frame, including inline calls")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.workerWait = Timer.builder("thrift.server.worker.wait")
+                .description("time a frame waits for a worker")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        Gauge.builder("thrift.server.read.buffer.bytes", readBufferBytes, AtomicLong::get)
+                .description("bytes allocated by the read buffers of all the connections")
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("thrift.server.read.buffer.utilization", readBufferBytes, bytes -> (double) bytes.get() / maxReadBufferBytes)
+                .description("read buffer bytes over thrift.maxReadBufferBytes, 1 means the reads are paused")
+                .register(registry);
+        Gauge.builder("thrift.server.worker.queue", workerQueue, AtomicLong::get)
+                .description("frames waiting for a worker").register(registry);
+    }
+
+    /**
+     * the internals of the server are private, a missing one leaves its gauge at 0
+     * @param className
+     * @param name
+     * @return null if the field is not found
+     */
+    private static Field field(String className, String name){
+        try {
+            Field field = Class.forName(className).getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ClassNotFoundException | NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    /**
+     * start sampling the server
+     * @param server
+     * @param workers
+     * @param threads the selector threads
+     */
+    void bind(AbstractNonblockingServer server, ExecutorService workers, Collection<? extends Thread> threads){
+        this.server = server;
+        this.workers = workers;
+        int index = 0;
+        for (Thread thread : threads){
+            SelectorSample sample = new SelectorSample(thread);
+            String tag = String.valueOf(index++);
+            Gauge.builder("thrift.server.selector.accept.queue", sample.acceptQueue, AtomicLong::get)
+                    .description("accepted connections waiting to be registered by the selector")
+                    .tag("selector", tag).register(registry);
+            Gauge.builder("thrift.server.selector.connections", sample.connections, AtomicLong::get)
+                    .description("connections open on the selector")
+                    .tag("selector", tag).register(registry);
+            Gauge.builder("thrift.server.selector.utilization", sample, SelectorSample::utilization)
+                    .description("cpu time of the selector thread over wall time, 1 means saturated")
+                    .tag("selector", tag).register(registry);
+            selectors.add(sample);
+            samples.put(thread, sample);
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("thrift-selector-metrics-%d").setDaemon(true).build());
+        sampler.scheduleAtFixedRate(this::sample, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * counts the connections of each selector thread: the frame buffer of a connection creates its context
+     * on the selector thread which registers it, and deletes it once closed. The key set of a selector
+     * can't be read from another thread, and holds keys which are no connections
+     * @param delegate the event handler of the server, null for none
+     * @return
+     */
+    TServerEventHandler connections(TServerEventHandler delegate){
+        return new ConnectionCounter(delegate);
+    }
+
+    void dispatched(long nanos){
+        dispatch.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void waited(long nanos){
+        workerWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void sample(){
+        try {
+            for (SelectorSample selector : selectors){
+                selector.sample();
+            }
+            if(READ_BUFFER_BYTES != null){
+                readBufferBytes.set(((AtomicLong) READ_BUFFER_BYTES.get(server)).get());
+            }
+            if(workers instanceof ThreadPoolExecutor){
+                workerQueue.set(((ThreadPoolExecutor) workers).getQueue().size());
+            }
+        }catch (Exception e){
+            logger.warn("failed to sample the selector server : " + e.getMessage());
+        }
+    }
+
+    void shutdown(){
+        if(sampler != null){
+            sampler.shutdown();
+        }
+    }
+
+    private class SelectorSample {
+
+        private final Thread thread;
+
+        private final AtomicLong acceptQueue = new AtomicLong();
+
+        private final AtomicLong connections = new AtomicLong();
+
+        private volatile double utilization;
+
+        private long lastCpuNanos = -1;
+
+        private long lastWallNanos;
+
+        SelectorSample(Thread thread) {
+            this.thread = thread;
+        }
+
+        double utilization(){
+            return utilization;
+        }
+
+        void sample() throws IllegalAccessException {
+            if(ACCEPTED_QUEUE != null){
+                acceptQueue.set(((BlockingQueue<?>) ACCEPTED_QUEUE.get(thread)).size());
+            }
+            if(threadMXBean.isThreadCpuTimeSupported()){
+                long cpuNanos = threadMXBean.getThreadCpuTime(thread.getId());
+                long wallNanos = System.nanoTime();
+                if(lastCpuNanos >= 0 && cpuNanos >= 0 && wallNanos > lastWallNanos){
+                    utilization = (double) (cpuNanos - lastCpuNanos) / (wallNanos - lastWallNanos);
+                }
+                lastCpuNanos = cpuNanos;
+                lastWallNanos = wallNanos;
+            }
+        }
+    }
+
+    private class ConnectionCounter implements TServerEventHandler {
+
+        private final TServerEventHandler delegate;
+
+        ConnectionCounter(TServerEventHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void preServe() {
+            if(delegate != null){
+                delegate.preServe();
+            }
+        }
+
+        @Override
+        public ServerContext createContext(TProtocol input, TProtocol output) {
+            SelectorSample sample = samples.get(Thread.currentThread());
+            if(sample != null){
+                sample.connections.incrementAndGet();
+            }
+            return new Connection(sample, delegate == null ? null : delegate.createContext(input, output));
+        }
+
+        @Override
+        public void deleteContext(ServerContext serverContext, TProtocol input, TProtocol output) {
+            Connection connection = (Connection) serverContext;
+            if(connection.sample != null && connection.open.compareAndSet(true, false)){
+                connection.sample.connections.decrementAndGet();
+            }
+            if(delegate != null){
+                delegate.deleteContext(connection.context, input, output);
+            }
+        }
+
+        @Override
+        public void processContext(ServerContext serverContext, TTransport inputTransport, TTransport outputTransport) {
+            if(delegate != null){
+                delegate.processContext(((Connection) serverContext).context, inputTransport, outputTransport);
+            }
+        }
+    }
+
+    /**
+     * the selector a connection is counted on, and the context of the event handler of the server
+     */
+    private static class Connection implements ServerContext {
+
+        private final SelectorSample sample;
+
+        private final ServerContext context;
+
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        Connection(SelectorSample sample, ServerContext context) {
+            this.sample = sample;
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.louis.thrift.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.louis.thrift.shm.SharedMemoryServerTransport;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Server of the shared memory connections, a thread by connection processing its calls one after the other
+ * like the clients of the pool send them. On stop the connections end once their call in process is answered
+ */
+public class SharedMemoryTServer extends TServer {
+
+    private final Logger logger = LoggerFactory.getLogger(SharedMemoryTServer.class);
+
+    private final SharedMemoryServerTransport transport;
+
+    private final TProcessor processor;
+
+    private final ExecutorService connections = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("thrift-shm-%d").setDaemon(true).build());
+
+    public SharedMemoryTServer(Args args) {
+        super(args);
+        this.transport = (SharedMemoryServerTransport) serverTransport_;
+        this.processor = processorFactory_.getProcessor(null);
+    }
+
+    SharedMemoryServerTransport transport() {
+        return transport;
+    }
+
+    @Override
+    public void serve() {
+        try {
+            transport.listen();
+        } catch (TTransportException e) {
+            logger.error("shared memory server failed : " + e.getMessage());
+            return;
+        }
+        logger.info("shared memory server accepting in " + transport.getDirectory());
+        setServing(true);
+        try {
+            while (!stopped_){
+                TTransport client = transport.accept();
+                connections.execute(() -> process(client));
+            }
+        } catch (TTransportException e) {
+            if(!stopped_){
+                logger.error("shared memory server failed : " + e.getMessage());
+            }
+        } finally {
+            setServing(false);
+            connections.shutdown();
+        }
+    }
+
+    private void process(TTransport client){
+        TProtocol in = inputProtocolFactory_.getProtocol(client);
+        TProtocol out = outputProtocolFactory_.getProtocol(client);
+        try {
+            while (processor.process(in, out)){
+                //next call
+            }
+        } catch (TTransportException e) {
+            //closed by the client, or by the stop
+        } catch (TException | RuntimeException e) {
+            logger.error("process shared memory call failed : " + e.getMessage());
+        } finally {
+            transport.closed(client);
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped_ = true;
+        transport.close();
+    }
+
+    public static class Args extends AbstractServerArgs<Args> {
+
+        public Args(SharedMemoryServerTransport serverTransport) {
+            super(serverTransport);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.louis.thrift.server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * A handler of a service which also implements it takes the streams of the service, they carry payloads
+ * too large for a single frame, like exports, in chunks. The client sends the whole request before it
+ * reads the response, a handler writing more than the window before the end of the request waits for it
+ */
+public interface StreamHandler {
+
+    /**
+     * run on a thread of its own, the stream ends when it returns
+     * @param method name given by the client
+     * @param in the request, until its end
+     * @param out the response, sent while it is written
+     * @throws Exception the client gets its message
+     */
+    void stream(String method, InputStream in, OutputStream out) throws Exception;
+}
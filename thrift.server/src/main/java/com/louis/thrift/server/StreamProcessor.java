@@ -0,0 +1,257 @@
+package com.louis.thrift.server;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.louis.thrift.client.props.ThriftServerProperties;
+import com.louis.thrift.concurrent.WorkerExecutors;
+import com.louis.thrift.stream.StreamFrame;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * The service "__stream" : the calls of the streams, see StreamFrame. The handlers run on threads of their own.
+ * A chunk written when the window is full, or a read finding no chunk, waits for the handler up to holdMillis
+ * so that the client calls again as soon as the handler is ready. Only maxHolding calls wait at the same time,
+ * the others are answered at once, refused or empty, and the client polls again a bit later.
+ * A stream left by its client is cancelled after the idle timeout
+ */
+class StreamProcessor implements TProcessor {
+
+    private final Logger logger = LoggerFactory.getLogger(StreamProcessor.class);
+
+    private final Map<String, StreamHandler> handlers;
+
+    private final ThriftServerProperties.Stream properties;
+
+    private final Map<Long, StreamSession> sessions = Maps.newConcurrentMap();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService reaper;
+
+    private final long holdNanos;
+
+    /**
+     * workers the streams may hold at the same time
+     */
+    private final Semaphore holding;
+
+    StreamProcessor(Map<String, StreamHandler> handlers, ThriftServerProperties properties) {
+        this.handlers = handlers;
+        this.properties = properties.getStream();
+        this.holdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, this.properties.getHoldMillis()));
+        this.holding = new Semaphore(Math.max(0, this.properties.getMaxHolding()));
+        this.executor = WorkerExecutors.newExecutor(properties.getWorkerMode(), "thrift-stream-",
+                () -> Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("thrift-stream-%d").setDaemon(true).build()));
+        this.reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("thrift-stream-reaper").setDaemon(true).build());
+        long period = Math.max(1, this.properties.getIdleTimeoutMillis() / 2);
+        reaper.scheduleWithFixedDelay(this::reap, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        StreamFrame request = new StreamFrame();
+        request.read(in);
+        in.readMessageEnd();
+        StreamFrame reply;
+        try {
+            switch (message.name){
+                case StreamFrame.OPEN:
+                    reply = open(request);
+                    break;
+                case StreamFrame.WRITE:
+                    reply = write(request);
+                    break;
+                case StreamFrame.READ:
+                    reply = read(request);
+                    break;
+                case StreamFrame.CANCEL:
+                    reply = cancel(request);
+                    break;
+                default:
+                    throw new TApplicationException(TApplicationException.UNKNOWN_METHOD, "Invalid method name: '" + message.name + "'");
+            }
+        }catch (TApplicationException e){
+            out.writeMessageBegin(new TMessage(message.name, TMessageType.EXCEPTION, message.seqid));
+            e.write(out);
+            out.writeMessageEnd();
+            out.getTransport().flush();
+            return true;
+        }
+        out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+        reply.write(out);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+        return true;
+    }
+
+    private StreamFrame open(StreamFrame request) throws TApplicationException {
+        StreamHandler handler = handlers.get(request.getService());
+        if(handler == null){
+            throw new TApplicationException(TApplicationException.UNKNOWN_METHOD, "no stream handler for " + request.getService());
+        }
+        if(sessions.size() >= properties.getMaxStreams()){
+            throw new TApplicationException(TApplicationException.INTERNAL_ERROR, "too many streams, " + properties.getMaxStreams() + " open");
+        }
+        StreamSession session = new StreamSession(ids.incrementAndGet(), properties.getChunkSize(), properties.getWindow());
+        sessions.put(session.id(), session);
+        try {
+            session.future(executor.submit(() -> {
+                try {
+                    handler.stream(request.getMethod(), session.in(), session.out());
+                    session.finish(null);
+                }catch (Throwable e){
+                    if(session.isCancelled()){
+                        logger.debug("stream " + session.id() + " cancelled : " + e.getMessage());
+                    }else{
+                        logger.error("stream " + request.getService() + ":" + request.getMethod() + " failed : " + e.getMessage());
+                    }
+                    session.finish(e);
+                }
+            }));
+        }catch (RejectedExecutionException e){
+            sessions.remove(session.id());
+            throw new TApplicationException(TApplicationException.INTERNAL_ERROR, "streams are shut down");
+        }
+        return new StreamFrame().id(session.id());
+    }
+
+    private StreamFrame write(StreamFrame request) throws TApplicationException {
+        StreamSession session = session(request.getId());
+        ByteBuffer data = request.getData();
+        //the frame buffer is reused for the next frame
+        byte[] chunk = new byte[data.remaining()];
+        data.get(chunk);
+        if(session.offer(chunk, request.isLast(), 0)){
+            return new StreamFrame();
+        }
+        if(holdNanos > 0 && holding.tryAcquire()){
+            try {
+                if(session.offer(chunk, request.isLast(), holdNanos)){
+                    return new StreamFrame();
+                }
+            }finally {
+                holding.release();
+            }
+        }
+        if(System.nanoTime() - session.accepted() > TimeUnit.MILLISECONDS.toNanos(properties.getIdleTimeoutMillis())){
+            remove(session);
+            throw new TApplicationException(TApplicationException.INTERNAL_ERROR, "stream " + session.id() + " stalled, the handler doesn't read");
+        }
+        //the client writes the chunk again
+        return new StreamFrame().full(true);
+    }
+
+    private StreamFrame read(StreamFrame request) throws TApplicationException {
+        StreamSession session = session(request.getId());
+        byte[] chunk = session.poll(0);
+        if(chunk == null && holdNanos > 0 && holding.tryAcquire()){
+            try {
+                chunk = session.poll(holdNanos);
+            }finally {
+                holding.release();
+            }
+        }
+        if(chunk == null){
+            //nothing yet, the client reads again a bit later
+            return new StreamFrame();
+        }
+        if(!StreamSession.isEnd(chunk)){
+            return new StreamFrame().data(ByteBuffer.wrap(chunk));
+        }
+        sessions.remove(session.id());
+        if(session.failure() != null){
+            Throwable failure = session.failure();
+            throw new TApplicationException(TApplicationException.INTERNAL_ERROR,
+                    failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName());
+        }
+        return new StreamFrame().last(true);
+    }
+
+    private StreamFrame cancel(StreamFrame request){
+        StreamSession session = sessions.get(request.getId());
+        if(session != null){
+            remove(session);
+        }
+        return new StreamFrame();
+    }
+
+    private StreamSession session(long id) throws TApplicationException {
+        StreamSession session = sessions.get(id);
+        if(session == null){
+            throw new TApplicationException(TApplicationException.INTERNAL_ERROR, "stream " + id + " is over");
+        }
+        return session;
+    }
+
+    private void remove(StreamSession session){
+        sessions.remove(session.id());
+        session.cancel();
+    }
+
+    private void reap(){
+        long idle = TimeUnit.MILLISECONDS.toNanos(properties.getIdleTimeoutMillis());
+        long now = System.nanoTime();
+        for (Iterator<StreamSession> it = sessions.values().iterator(); it.hasNext(); ){
+            StreamSession session = it.next();
+            if(now - session.touched() > idle){
+                logger.warn("stream " + session.id() + " idle for " + properties.getIdleTimeoutMillis() + "ms, cancelled");
+                it.remove();
+                session.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return streams going on
+     */
+    int size(){
+        return sessions.size();
+    }
+
+    void close(){
+        reaper.shutdownNow();
+        sessions.values().forEach(StreamSession::cancel);
+        sessions.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,331 @@
+package com.louis.thrift.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * One stream between the calls of the client and its handler. The chunks go through queues of a few chunks
+ * each way, the handler waits on them when the client is slower, the calls of the client may wait a little
+ * when the handler is
+ */
+class StreamSession {
+
+    /**
+     * end of the request or of the response
+     */
+    private static final byte[] END = new byte[0];
+
+    private final long id;
+
+    private final int chunkSize;
+
+    private final BlockingQueue<byte[]> requests;
+
+    private final BlockingQueue<byte[]> responses;
+
+    /**
+     * room for the chunks of the request, taken back by the handler
+     */
+    private final Semaphore room;
+
+    private final Request in;
+
+    private final Response out;
+
+    private volatile long touched = System.nanoTime();
+
+    private volatile long accepted = touched;
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable failure;
+
+    private volatile Future<?> future;
+
+    StreamSession(long id, int chunkSize, int window) {
+        this.id = id;
+        this.chunkSize = Math.max(1, chunkSize);
+        //a slot more for the end of the request
+        this.requests = new ArrayBlockingQueue<>(Math.max(1, window) + 1);
+        this.responses = new ArrayBlockingQueue<>(Math.max(1, window));
+        this.room = new Semaphore(Math.max(1, window));
+        this.in = new Request();
+        this.out = new Response();
+    }
+
+    long id() {
+        return id;
+    }
+
+    InputStream in() {
+        return in;
+    }
+
+    OutputStream out() {
+        return out;
+    }
+
+    void future(Future<?> future) {
+        this.future = future;
+    }
+
+    long touched() {
+        return touched;
+    }
+
+    /**
+     * @return nano time a chunk of the request was taken last
+     */
+    long accepted() {
+        return accepted;
+    }
+
+    /**
+     * a chunk of the request from the client, the calls of a stream come one after another
+     * @param chunk
+     * @param last
+     * @param waitNanos longest wait for room in the window, 0 not to wait
+     * @return false if the window is still full, the client sends it again later
+     */
+    boolean offer(byte[] chunk, boolean last, long waitNanos) {
+        touched = System.nanoTime();
+        //the handler may be done without reading the whole request
+        if(cancelled || isDone()){
+            return true;
+        }
+        if(chunk.length > 0){
+            //the slot of the end stays free
+            if(!room.tryAcquire() && !acquire(waitNanos)){
+                return false;
+            }
+            requests.offer(chunk);
+        }
+        if(last){
+            requests.offer(END);
+        }
+        accepted = touched;
+        return true;
+    }
+
+    private boolean acquire(long waitNanos){
+        if(waitNanos <= 0){
+            return false;
+        }
+        try {
+            return room.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * a chunk of the response for the client
+     * @param waitNanos longest wait for a chunk, 0 not to wait
+     * @return null if none is ready, an empty one at the end
+     */
+    byte[] poll(long waitNanos) {
+        touched = System.nanoTime();
+        byte[] chunk = responses.poll();
+        if(chunk != null || waitNanos <= 0){
+            return chunk;
+        }
+        try {
+            return responses.poll(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    static boolean isEnd(byte[] chunk){
+        return chunk == END;
+    }
+
+    /**
+     * the handler returned, or threw failure
+     * @param failure
+     */
+    void finish(Throwable failure){
+        this.failure = failure;
+        try {
+            out.flush();
+            put(responses, END);
+        } catch (IOException e) {
+            //cancelled
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    Throwable failure() {
+        return failure;
+    }
+
+    private boolean isDone(){
+        Future<?> future = this.future;
+        return future != null && future.isDone();
+    }
+
+    /**
+     * the client left or went silent, the handler is interrupted
+     */
+    void cancel(){
+        cancelled = true;
+        Future<?> future = this.future;
+        if(future != null){
+            future.cancel(true);
+        }
+        requests.clear();
+        responses.clear();
+    }
+
+    /**
+     * the handler waits for room, as long as the stream goes on
+     * @param queue
+     * @param chunk
+     * @throws IOException
+     */
+    private void put(BlockingQueue<byte[]> queue, byte[] chunk) throws IOException {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)){
+                if(cancelled){
+                    throw new IOException("stream " + id + " cancelled");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("stream " + id + " cancelled");
+        }
+    }
+
+    private class Request extends InputStream {
+
+        private byte[] chunk;
+
+        private int position;
+
+        /**
+         * @return false at the end of the request
+         * @throws IOException
+         */
+        private boolean next() throws IOException {
+            while (chunk == null || position == chunk.length){
+                if(chunk == END){
+                    return false;
+                }
+                if(cancelled){
+                    throw new IOException("stream " + id + " cancelled");
+                }
+                try {
+                    chunk = requests.poll(100, TimeUnit.MILLISECONDS);
+                    position = 0;
+                    if(chunk != null && chunk != END){
+                        room.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("stream " + id + " cancelled");
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? chunk[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0){
+                return 0;
+            }
+            if(!next()){
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null || chunk == END ? 0 : chunk.length - position;
+        }
+    }
+
+    private class Response extends OutputStream {
+
+        private byte[] buffer = new byte[chunkSize];
+
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buffer.length){
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0){
+                if(count == buffer.length){
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * send the chunk written so far, the chunks are handed over, not copied
+         * @throws IOException
+         */
+        @Override
+        public void flush() throws IOException {
+            if(count == 0){
+                return;
+            }
+            byte[] chunk = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+            put(responses, chunk);
+            buffer = new byte[chunkSize];
+            count = 0;
+        }
+    }
+}
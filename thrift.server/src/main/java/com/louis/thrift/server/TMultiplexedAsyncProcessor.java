@@ -0,0 +1,310 @@
+package com.louis.thrift.server;
+
+import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.thrift.AsyncProcessFunction;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TAsyncProcessor;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TBaseAsyncProcessor;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.server.AbstractNonblockingServer.AsyncFrameBuffer;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * Multiplexed processor serving both the generated AsyncProcessor and the
+ * synchronous processors on the same port.
+ * An async handler completes its callback from any thread, the worker thread
+ * is released as soon as the handler returns
+ */
+public class TMultiplexedAsyncProcessor implements TAsyncProcessor, TProcessor {
+
+    private final Map<String, AsyncService> asyncServices = Maps.newConcurrentMap();
+
+    private final Map<String, TProcessor> processors = Maps.newConcurrentMap();
+
+    private final MeterRegistry registry;
+
+    private InFlightRequests inFlight;
+
+    public TMultiplexedAsyncProcessor() {
+        this(null);
+    }
+
+    /**
+     * @param registry records the async calls per method, null to disable
+     */
+    public TMultiplexedAsyncProcessor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * count the async calls until their handler completes them
+     * @param inFlight
+     */
+    void inFlight(InFlightRequests inFlight){
+        this.inFlight = inFlight;
+    }
+
+    public void registerProcessor(String serviceName, TProcessor processor){
+        processors.put(serviceName, processor);
+    }
+
+    /**
+     * register the implementation of ${serviceName}$AsyncIface
+     * @param serviceName
+     * @param handler
+     */
+    public void registerAsyncHandler(String serviceName, Object handler){
+        asyncServices.put(serviceName, AsyncService.of(serviceName, handler, registry));
+    }
+
+    @Override
+    public boolean process(AsyncFrameBuffer fb) throws TException {
+        TProtocol in = fb.getInputProtocol();
+        TProtocol out = fb.getOutputProtocol();
+        TMessage message = in.readMessageBegin();
+        if(message.type != TMessageType.CALL && message.type != TMessageType.ONEWAY){
+            throw new TProtocolException(TProtocolException.NOT_IMPLEMENTED, "This should not have happened!?");
+        }
+        int index = message.name.indexOf(TMultiplexedProtocol.SEPARATOR);
+        if(index < 0){
+            throw new TProtocolException(TProtocolException.NOT_IMPLEMENTED,
+                    "Service name not found in message name: " + message.name + ".  Did you forget to use a TMultiplexProtocol in your client?");
+        }
+        String serviceName = message.name.substring(0, index);
+        TMessage standardMessage = new TMessage(message.name.substring(index + TMultiplexedProtocol.SEPARATOR.length()),
+                message.type, message.seqid);
+        AsyncService asyncService = asyncServices.get(serviceName);
+        if(asyncService != null){
+            return asyncService.process(fb, standardMessage, in, out, inFlight);
+        }
+        boolean result = getProcessor(serviceName).process(new StoredMessageProtocol(in, standardMessage), out);
+        fb.responseReady();
+        return result;
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        int index = message.name.indexOf(TMultiplexedProtocol.SEPARATOR);
+        if(index < 0){
+            throw new TProtocolException(TProtocolException.NOT_IMPLEMENTED,
+                    "Service name not found in message name: " + message.name + ".  Did you forget to use a TMultiplexProtocol in your client?");
+        }
+        String serviceName = message.name.substring(0, index);
+        if(asyncServices.containsKey(serviceName)){
+            throw new TException("Async service " + serviceName + " requires a nonblocking server");
+        }
+        TMessage standardMessage = new TMessage(message.name.substring(index + TMultiplexedProtocol.SEPARATOR.length()),
+                message.type, message.seqid);
+        return getProcessor(serviceName).process(new StoredMessageProtocol(in, standardMessage), out);
+    }
+
+    private TProcessor getProcessor(String serviceName) throws TException {
+        TProcessor processor = processors.get(serviceName);
+        if(processor == null){
+            throw new TException("Service name not found: " + serviceName + ".  Did you forget to call registerProcessor()?");
+        }
+        return processor;
+    }
+
+    /**
+     * the handler and the process functions of the generated AsyncProcessor
+     */
+    private static class AsyncService {
+
+        private final Object iface;
+
+        private final Map<String, AsyncProcessFunction<Object, TBase<?, ?>, Object>> processMap;
+
+        private final Map<String, MethodMetrics> metrics = Maps.newHashMap();
+
+        private AsyncService(Object iface, Map<String, AsyncProcessFunction<Object, TBase<?, ?>, Object>> processMap) {
+            this.iface = iface;
+            this.processMap = processMap;
+        }
+
+        static AsyncService of(String serviceName, Object handler, MeterRegistry registry){
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                Class<?> asyncIfaceClass = classLoader.loadClass(serviceName + "$AsyncIface");
+                if(!asyncIfaceClass.isInstance(handler)){
+                    throw new IllegalArgumentException(handler.getClass().getName() + " doesn't implement " + asyncIfaceClass.getName());
+                }
+                Constructor<?> constructor = classLoader.loadClass(serviceName + "$AsyncProcessor").getConstructor(asyncIfaceClass);
+                TBaseAsyncProcessor<?> processor = (TBaseAsyncProcessor<?>) constructor.newInstance(handler);
+                AsyncService asyncService = new AsyncService(handler, functionsOf(processor));
+                if(registry != null){
+                    for (String method : asyncService.processMap.keySet()){
+                        asyncService.metrics.put(method, new MethodMetrics(registry, serviceName, method));
+                    }
+                }
+                return asyncService;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("failed to load AsyncProcessor of " + serviceName + " : " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * the functions of the generated processor are only given the handler it was built with, the args
+         * they create and the callbacks of their own result handler, so they can be called as functions of Object
+         * @param processor
+         * @return
+         */
+        @SuppressWarnings("unchecked")
+        private static Map<String, AsyncProcessFunction<Object, TBase<?, ?>, Object>> functionsOf(TBaseAsyncProcessor<?> processor){
+            return (Map<String, AsyncProcessFunction<Object, TBase<?, ?>, Object>>) (Map<String, ?>) processor.getProcessMapView();
+        }
+
+        boolean process(AsyncFrameBuffer fb, TMessage message, TProtocol in, TProtocol out, InFlightRequests inFlight) throws TException {
+            long start = System.nanoTime();
+            long requestBytes = MeteredProcessor.frameSize(in.getTransport());
+            boolean oneway = message.type == TMessageType.ONEWAY;
+            AsyncProcessFunction<Object, TBase<?, ?>, Object> fn = processMap.get(message.name);
+            if(fn == null){
+                TProtocolUtil.skip(in, TType.STRUCT);
+                in.readMessageEnd();
+                if(!oneway){
+                    writeException(out, message, new TApplicationException(TApplicationException.UNKNOWN_METHOD,
+                            "Invalid method name: '" + message.name + "'"));
+                }
+                fb.responseReady();
+                return true;
+            }
+            TBase<?, ?> args = fn.getEmptyArgsInstance();
+            try {
+                args.read(in);
+            } catch (TProtocolException e) {
+                in.readMessageEnd();
+                if(!oneway){
+                    writeException(out, message, new TApplicationException(TApplicationException.PROTOCOL_ERROR, e.getMessage()));
+                }
+                fb.responseReady();
+                return true;
+            }
+            in.readMessageEnd();
+            if(oneway){
+                fb.responseReady();
+            }
+            AsyncMethodCallback<Object> resultHandler = fn.getResultHandler(fb, message.seqid);
+            MethodMetrics methodMetrics = metrics.get(message.name);
+            if(methodMetrics != null){
+                resultHandler = new MeteredCallback(resultHandler, methodMetrics, start, requestBytes);
+            }
+            if(inFlight != null){
+                inFlight.begin();
+                resultHandler = new InFlightCallback(resultHandler, inFlight);
+            }
+            try {
+                fn.start(iface, args, resultHandler);
+            } catch (Exception e) {
+                resultHandler.onError(e);
+            }
+            return true;
+        }
+
+        private void writeException(TProtocol out, TMessage message, TApplicationException x) throws TException {
+            out.writeMessageBegin(new TMessage(message.name, TMessageType.EXCEPTION, message.seqid));
+            x.write(out);
+            out.writeMessageEnd();
+            out.getTransport().flush();
+        }
+    }
+
+    /**
+     * the async call is in flight until the handler completes it
+     */
+    private static class InFlightCallback implements AsyncMethodCallback<Object> {
+
+        private final AsyncMethodCallback<Object> callback;
+
+        private final InFlightRequests inFlight;
+
+        InFlightCallback(AsyncMethodCallback<Object> callback, InFlightRequests inFlight) {
+            this.callback = callback;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void onComplete(Object response) {
+            try {
+                callback.onComplete(response);
+            }finally {
+                inFlight.end();
+            }
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            try {
+                callback.onError(exception);
+            }finally {
+                inFlight.end();
+            }
+        }
+    }
+
+    /**
+     * record the async call once the handler completes it
+     */
+    private static class MeteredCallback implements AsyncMethodCallback<Object> {
+
+        private final AsyncMethodCallback<Object> callback;
+
+        private final MethodMetrics metrics;
+
+        private final long start;
+
+        private final long requestBytes;
+
+        MeteredCallback(AsyncMethodCallback<Object> callback, MethodMetrics metrics, long start, long requestBytes) {
+            this.callback = callback;
+            this.metrics = metrics;
+            this.start = start;
+            this.requestBytes = requestBytes;
+        }
+
+        @Override
+        public void onComplete(Object response) {
+            metrics.record(System.nanoTime() - start, requestBytes, -1, false);
+            callback.onComplete(response);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            metrics.record(System.nanoTime() - start, requestBytes, -1, true);
+            callback.onError(exception);
+        }
+    }
+}
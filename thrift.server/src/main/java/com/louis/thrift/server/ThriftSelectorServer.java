@@ -0,0 +1,209 @@
+package com.louis.thrift.server;
+
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.TServerEventHandler;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/****************************************************************************
+ Copyright (c) 2017 Louis Y P Chen.
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+/**
+ * TThreadedSelectorServer which picks where to run a frame once its message name is known:
+ * inline on the selector thread, in the bulkhead of its service, or in the shared worker pool
+ */
+public class ThriftSelectorServer extends TThreadedSelectorServer {
+
+    private final Logger logger = LoggerFactory.getLogger(ThriftSelectorServer.class);
+
+    private final Bulkheads bulkheads;
+
+    private final InlineMethods inlineMethods;
+
+    private final SelectorMetrics metrics;
+
+    private final ExecutorService workers;
+
+    private final InFlightRequests inFlight;
+
+    /**
+     * reads the headers of the frames on the selector threads, without the state of a connection
+     */
+    private final TProtocolFactory peekProtocolFactory;
+
+    public ThriftSelectorServer(Args args) {
+        super(args);
+        this.bulkheads = args.bulkheads;
+        this.inlineMethods = args.inlineMethods;
+        this.metrics = args.metrics;
+        this.workers = args.getExecutorService();
+        this.inFlight = args.inFlight;
+        this.peekProtocolFactory = ProtocolDetection.fallbackOf(inputProtocolFactory_);
+        if(metrics != null){
+            setServerEventHandler(null);
+        }
+    }
+
+    /**
+     * @param eventHandler wrapped by the one counting the connections when the metrics are on
+     */
+    @Override
+    public void setServerEventHandler(TServerEventHandler eventHandler) {
+        super.setServerEventHandler(metrics == null ? eventHandler : metrics.connections(eventHandler));
+    }
+
+    private boolean dispatchByName(){
+        return (bulkheads != null && !bulkheads.isEmpty()) || (inlineMethods != null && !inlineMethods.isEmpty());
+    }
+
+    @Override
+    protected SelectorThreadLoadBalancer createSelectorThreadLoadBalancer(Collection<? extends SelectorThread> threads) {
+        if(metrics != null){
+            metrics.bind(this, workers, threads);
+        }
+        return super.createSelectorThreadLoadBalancer(threads);
+    }
+
+    @Override
+    protected boolean requestInvoke(FrameBuffer frameBuffer) {
+        if(inFlight != null){
+            inFlight.begin();
+        }
+        boolean dispatched;
+        if(metrics == null){
+            dispatched = dispatch(frameBuffer);
+        }else{
+            long start = System.nanoTime();
+            try {
+                dispatched = dispatch(frameBuffer);
+            }finally {
+                metrics.dispatched(System.nanoTime() - start);
+            }
+        }
+        if(!dispatched && inFlight != null){
+            inFlight.end();
+        }
+        return dispatched;
+    }
+
+    @Override
+    protected Runnable getRunnable(FrameBuffer frameBuffer) {
+        Runnable invocation = super.getRunnable(frameBuffer);
+        if(metrics == null && inFlight == null){
+            return invocation;
+        }
+        long queued = System.nanoTime();
+        return () -> {
+            if(metrics != null){
+                metrics.waited(System.nanoTime() - queued);
+            }
+            try {
+                invocation.run();
+            }finally {
+                if(inFlight != null){
+                    inFlight.end();
+                }
+            }
+        };
+    }
+
+    private boolean dispatch(FrameBuffer frameBuffer) {
+        if(!dispatchByName()){
+            return super.requestInvoke(frameBuffer);
+        }
+        TMessage message = FrameBuffers.peekMessage(frameBuffer, peekProtocolFactory);
+        if(message != null && inlineMethods != null && inlineMethods.contains(message.name)){
+            long start = System.nanoTime();
+            try {
+                frameBuffer.invoke();
+            }finally {
+                if(inFlight != null){
+                    inFlight.end();
+                }
+            }
+            inlineMethods.record(message.name, System.nanoTime() - start);
+            return true;
+        }
+        String service = FrameBuffers.serviceName(message);
+        ExecutorService executor = bulkheads == null ? null : bulkheads.get(service);
+        if(executor == null){
+            return super.requestInvoke(frameBuffer);
+        }
+        try {
+            executor.execute(getRunnable(frameBuffer));
+            return true;
+        }catch (RejectedExecutionException e){
+            logger.warn("bulkhead of " + service + " is full, request rejected");
+            return false;
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if(bulkheads != null){
+            bulkheads.shutdown();
+        }
+        if(metrics != null){
+            metrics.shutdown();
+        }
+    }
+
+    public static class Args extends TThreadedSelectorServer.Args {
+
+        private Bulkheads bulkheads;
+
+        private InlineMethods inlineMethods;
+
+        private SelectorMetrics metrics;
+
+        private InFlightRequests inFlight;
+
+        public Args(TNonblockingServerTransport transport) {
+            super(transport);
+        }
+
+        public Args bulkheads(Bulkheads bulkheads){
+            this.bulkheads = bulkheads;
+            return this;
+        }
+
+        public Args inlineMethods(InlineMethods inlineMethods){
+            this.inlineMethods = inlineMethods;
+            return this;
+        }
+
+        public Args metrics(SelectorMetrics metrics){
+            this.metrics = metrics;
+            return this;
+        }
+
+        Args inFlight(InFlightRequests inFlight){
+            this.inFlight = inFlight;
+            return this;
+        }
+    }
+}